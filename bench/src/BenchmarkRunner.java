@@ -0,0 +1,137 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Runs micro benchmarks and prints, for each of them, the average time per
+ * operation, the allocation rate (bytes per operation and MB/s) and the number
+ * of garbage collections and the time spent in them during the measurement.
+ * 
+ * Every benchmark is warmed up first so that the measured code is compiled by
+ * the JIT. The value returned by an operation is kept in a field so that the
+ * JIT cannot remove the measured work.
+ * 
+ * @author dtabys
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * The operation measured by a benchmark
+	 */
+	public interface Operation {
+		int run();
+	}
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int MEASURED_ITERATIONS = 5;
+
+	private static final long ITERATION_TIME = 500_000_000L; // in ns
+
+	// number of operations between two reads of the clock
+	private static final int BATCH = 256;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	private List<GarbageCollectorMXBean> collectors;
+
+	private String[] filters; // only run the benchmarks matching one of these
+
+	private volatile int sink; // consumes the results of the operations
+
+	/**
+	 * Creates a runner
+	 * 
+	 * @param filters
+	 *            runs only the benchmarks whose name contains one of these,
+	 *            runs all of them if empty
+	 */
+	public BenchmarkRunner(String[] filters) {
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		this.filters = filters;
+		System.out.printf("%-32s %12s %10s %10s %6s %8s%n", "Benchmark",
+				"ns/op", "B/op", "MB/s", "gc", "gc ms");
+	}
+
+	/**
+	 * Measures the given operation and prints the results
+	 * 
+	 * @param name
+	 *            the name of the benchmark
+	 * @param op
+	 *            the operation to measure
+	 */
+	public void run(String name, Operation op) {
+		if (!matches(name))
+			return;
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			iterate(op);
+		}
+
+		long ops = 0, time = 0, bytes = 0, gcCount = 0, gcTime = 0;
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			long gcCountBefore = gcCount(), gcTimeBefore = gcTime();
+			long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			ops += iterate(op);
+			time += System.nanoTime() - start;
+			bytes += threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+			gcCount += gcCount() - gcCountBefore;
+			gcTime += gcTime() - gcTimeBefore;
+		}
+
+		System.out.printf("%-32s %12.2f %10.1f %10.1f %6d %8d%n", name,
+				(double) time / ops, (double) bytes / ops,
+				bytes / 1e6 / (time / 1e9), gcCount, gcTime);
+	}
+
+	/**
+	 * Runs the operation for one iteration, returns the number of operations
+	 */
+	private long iterate(Operation op) {
+		long ops = 0;
+		int result = 0;
+		long end = System.nanoTime() + ITERATION_TIME;
+		do {
+			for (int i = 0; i < BATCH; i++) {
+				result += op.run();
+			}
+			ops += BATCH;
+		} while (System.nanoTime() < end);
+		sink = result;
+		return ops;
+	}
+
+	/** Returns true if the benchmark with the given name should run */
+	private boolean matches(String name) {
+		if (filters.length == 0)
+			return true;
+		for (int i = 0; i < filters.length; i++) {
+			if (name.contains(filters[i]))
+				return true;
+		}
+		return false;
+	}
+
+	/** Total number of collections of all the garbage collectors */
+	private long gcCount() {
+		long count = 0;
+		for (int i = 0; i < collectors.size(); i++) {
+			count += Math.max(0, collectors.get(i).getCollectionCount());
+		}
+		return count;
+	}
+
+	/** Total time in ms spent in all the garbage collectors */
+	private long gcTime() {
+		long time = 0;
+		for (int i = 0; i < collectors.size(); i++) {
+			time += Math.max(0, collectors.get(i).getCollectionTime());
+		}
+		return time;
+	}
+}
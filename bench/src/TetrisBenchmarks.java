@@ -0,0 +1,191 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Benchmarks of the core game operations: removing full rows, dropping,
+ * rotating and locating pieces, drawing the grid, saving and restoring a
+ * game and planning the moves of the AutoPlayer.
+ * 
+ * The boards are rebuilt before every call to checkRows (which empties them),
+ * the "Grid.copyFrom" benchmark gives the cost of that copy.
+ * 
+ * @author dtabys
+ */
+public class TetrisBenchmarks {
+
+	// names of the pieces made by Game.createPiece(1) to Game.createPiece(7)
+	private static final String[] SHAPES = { "ZShape", "SquareShape",
+			"JShape", "TShape", "SShape", "BarShape", "LShape" };
+
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner(args);
+
+		// checkRows on boards without, with few and with many full rows
+		benchmarkCheckRows(runner, "Grid.checkRows sparse", sparseBoard());
+		benchmarkCheckRows(runner, "Grid.checkRows dense", denseBoard());
+		benchmarkCheckRows(runner, "Grid.checkRows multi-clear",
+				multiClearBoard());
+
+		final Grid board = denseBoard();
+		final Grid copy = new Grid();
+		runner.run("Grid.copyFrom", () -> {
+			copy.copyFrom(board);
+			return copy.getRow(Grid.HEIGHT - 1);
+		});
+
+		// drop every kind of piece from the top of an empty grid
+		final Game game = new Game();
+		final int[] next = { 0 };
+		runner.run("AbstractPiece.move(DROP)", () -> {
+			AbstractPiece p = game.createPiece(next[0] % 7 + 1);
+			next[0]++;
+			p.move(Direction.DROP);
+			return p.getLocations().length;
+		});
+
+		// rotate every kind of piece in the middle of an empty grid
+		for (int n = 1; n <= 7; n++) {
+			final AbstractPiece p = game.createPiece(n);
+			p.move(Direction.DOWN);
+			p.move(Direction.DOWN);
+			runner.run("canRotate " + SHAPES[n - 1],
+					() -> p.canRotate() ? 1 : 0);
+			runner.run("rotate " + SHAPES[n - 1], () -> {
+				p.rotate();
+				return 1;
+			});
+		}
+
+		final AbstractPiece piece = game.createPiece(3);
+		runner.run("AbstractPiece.getLocations", () -> {
+			return (int) piece.getLocations()[0].getX();
+		});
+		final int[] rows = new int[AbstractPiece.PIECE_COUNT];
+		final int[] cols = new int[AbstractPiece.PIECE_COUNT];
+		runner.run("AbstractPiece.getLocations(int[])", () -> {
+			piece.getLocations(rows, cols);
+			return rows[0];
+		});
+
+		// save and restore a game in the middle of a dense board
+		final Game saved = new Game(new BagRandomizer(1));
+		saved.getGrid().copyFrom(denseBoard());
+		final byte[] snapshot = saved.snapshot();
+		runner.run("Game.snapshot", () -> {
+			saved.snapshot(snapshot);
+			return snapshot[0];
+		});
+		runner.run("Game.restore", () -> {
+			saved.restore(snapshot);
+			return saved.getNextPiece();
+		});
+
+		// move a piece left and right, without and with an EventBus to
+		// publish the moves on
+		benchmarkSteps(runner, "Game.step", null);
+		benchmarkSteps(runner, "Game.step with an EventBus", new EventBus());
+
+		// plan the placement of every kind of piece, one thread or all
+		benchmarkAutoPlayer(runner, "AutoPlayer.nextAction", false);
+		benchmarkAutoPlayer(runner, "AutoPlayer.nextAction parallel", true);
+
+		// draw a dense board into an offscreen image
+		BufferedImage image = new BufferedImage(400, 550,
+				BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = image.createGraphics();
+		runner.run("Grid.draw", () -> {
+			board.draw(g);
+			return 1;
+		});
+		final int[] col = { 0 };
+		runner.run("Grid.draw after set", () -> {
+			board.set(0, col[0]++ % Grid.WIDTH, Color.RED);
+			board.draw(g);
+			return 1;
+		});
+		g.dispose();
+	}
+
+	/**
+	 * Measures checkRows on a copy of the given board
+	 */
+	private static void benchmarkCheckRows(BenchmarkRunner runner,
+			String name, final Grid board) {
+		final Grid grid = new Grid();
+		runner.run(name, () -> {
+			grid.copyFrom(board);
+			grid.checkRows();
+			return grid.getRow(Grid.HEIGHT - 1);
+		});
+	}
+
+	/**
+	 * Measures a step left and a step right of the piece of a new game
+	 */
+	private static void benchmarkSteps(BenchmarkRunner runner, String name,
+			EventBus events) {
+		final Game game = new Game(new BagRandomizer(1));
+		game.setEventBus(events);
+		runner.run(name, () -> {
+			game.step(Direction.LEFT);
+			game.step(Direction.RIGHT);
+			return game.getPiece().getCol();
+		});
+	}
+
+	/**
+	 * Measures the planning of a new piece by an AutoPlayer
+	 */
+	private static void benchmarkAutoPlayer(BenchmarkRunner runner,
+			String name, boolean parallel) {
+		final Game game = new Game();
+		final AutoPlayer player = new AutoPlayer(parallel);
+		final int[] next = { 0 };
+		runner.run(name, () -> {
+			game.createPiece(next[0] % 7 + 1);
+			next[0]++;
+			return player.nextAction(game).ordinal();
+		});
+	}
+
+	/**
+	 * A few squares at the bottom of the grid, no full row
+	 */
+	private static Grid sparseBoard() {
+		Grid g = new Grid();
+		for (int c = 0; c < Grid.WIDTH; c += 3) {
+			g.set(Grid.HEIGHT - 1, c, Color.RED);
+		}
+		g.set(Grid.HEIGHT - 2, 3, Color.RED);
+		return g;
+	}
+
+	/**
+	 * Every row but the top ones nearly full, no full row
+	 */
+	private static Grid denseBoard() {
+		Grid g = new Grid();
+		for (int r = 4; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				if (c != r % Grid.WIDTH) {
+					g.set(r, c, Color.BLUE);
+				}
+			}
+		}
+		return g;
+	}
+
+	/**
+	 * Four full rows at the bottom under nearly full rows
+	 */
+	private static Grid multiClearBoard() {
+		Grid g = denseBoard();
+		for (int r = Grid.HEIGHT - 4; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				g.set(r, c, Color.GREEN);
+			}
+		}
+		return g;
+	}
+}
@@ -1,9 +1,16 @@
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Rectangle;
 
 /**
  * Abstract class for all pieces
+ * 
+ * A piece is its ShapeTemplate, its rotation state and the (row, col)
+ * location of its pivot square. The squares are computed from the template
+ * when needed, and moves and rotations are tested against the grid with the
+ * bitmasks of the template.
+ * 
  * @author dtabys
  *
  */
@@ -11,13 +18,19 @@ abstract public class AbstractPiece implements Piece {
 
 	protected boolean ableToMove; // can this piece move
 
-	protected Square[] square; // the squares that make up this piece
+	protected ShapeTemplate template; // the shape of this piece
+
+	protected int rotation; // the rotation state of the template
+
+	protected int row, col; // location of the pivot square
+
+	private int serial; // times the piece was reset to a new piece
 
 	// Made up of PIECE_COUNT squares
 	protected Grid grid; // the board this piece is on
 
 	// number of squares in one Tetris game piece
-	protected static final int PIECE_COUNT = 4;
+	public static final int PIECE_COUNT = 4;
 
 	/**
 	 * See class description for actual location of r
@@ -29,21 +42,123 @@ abstract public class AbstractPiece implements Piece {
 	 *            column location for this piece
 	 * @param g
 	 *            the grid for this game piece
+	 * @param t
+	 *            the shape of this piece
 	 * 
 	 */
-	protected AbstractPiece(int r, int c, Grid g) {
+	protected AbstractPiece(int r, int c, Grid g, ShapeTemplate t) {
 		grid = g;
-		square = new Square[PIECE_COUNT];
+		template = t;
+		rotation = 0;
+		row = r;
+		col = c;
 		ableToMove = true;
 	}
 
+	/**
+	 * Returns the shape of this piece
+	 */
+	public ShapeTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Returns the rotation state of this piece, between 0 and
+	 * ShapeTemplate.ROTATIONS - 1
+	 */
+	public int getRotation() {
+		return rotation;
+	}
+
+	/**
+	 * Returns the row of the pivot square
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Returns the column of the pivot square
+	 */
+	public int getCol() {
+		return col;
+	}
+
+	/**
+	 * Puts the piece in the given rotation state and location, e.g. to
+	 * restore a saved game. The location is not checked against the grid.
+	 * 
+	 * @param rotation
+	 *            the rotation state of the template
+	 * @param r
+	 *            the row of the pivot
+	 * @param c
+	 *            the column of the pivot
+	 */
+	public void moveTo(int rotation, int r, int c) {
+		this.rotation = rotation;
+		row = r;
+		col = c;
+		ableToMove = true;
+	}
+
+	/**
+	 * Makes this piece a new piece of the given shape, in the given rotation
+	 * state and location, so that a game can reuse one piece instead of
+	 * creating one for every spawn. The location is not checked against the
+	 * grid.
+	 * 
+	 * @param t
+	 *            the shape of the new piece
+	 * @param rotation
+	 *            the rotation state of the template
+	 * @param r
+	 *            the row of the pivot
+	 * @param c
+	 *            the column of the pivot
+	 */
+	public void reset(ShapeTemplate t, int rotation, int r, int c) {
+		template = t;
+		serial++;
+		moveTo(rotation, r, c);
+	}
+
+	/**
+	 * Returns the number of times the piece was reset: a piece reused by a
+	 * game is a new piece whenever its serial changes
+	 */
+	public int getSerial() {
+		return serial;
+	}
+
 	/**
 	 * Draws the piece on the given Graphics context
 	 */
 	public void draw(Graphics g) {
 		for (int i = 0; i < PIECE_COUNT; i++) {
-			square[i].draw(g);
+			Square.draw(g, row + template.getRowOffset(rotation, i), col
+					+ template.getColOffset(rotation, i), template.getColorIndex());
+		}
+	}
+
+	/**
+	 * Sets the given rectangle to the pixels covered by this piece when it is
+	 * drawn, borders included
+	 * 
+	 * @param bounds
+	 *            receives the bounds of the piece
+	 */
+	public void getBounds(Rectangle bounds) {
+		int top = row + template.getTop(rotation);
+		int left = col + template.getLeft(rotation);
+		int width = 0;
+		for (int i = 0; i < template.getHeight(rotation); i++) {
+			width = Math.max(width,
+					32 - Integer.numberOfLeadingZeros(template.getMask(rotation, i)));
 		}
+		bounds.setBounds(Grid.LEFT + left * Square.WIDTH, Grid.TOP + top
+				* Square.HEIGHT, width * Square.WIDTH + 1,
+				template.getHeight(rotation) * Square.HEIGHT + 1);
 	}
 
 	/**
@@ -56,16 +171,14 @@ abstract public class AbstractPiece implements Piece {
 	public void move(Direction direction) {
 
 		// if direction is DROP, then move the piece DOWN until it can no longer
-		// move DOWN
-		if (direction == Direction.DROP) {
-			while (canMove(Direction.DOWN)) {
-				move(Direction.DOWN);
-			}
+		// move DOWN: the shortest drop distance of its squares
+		if (direction == Direction.DROP && canMove(Direction.DOWN)) {
+			row += dropDistance();
 		}
 
 		if (canMove(direction)) {
-			for (int i = 0; i < PIECE_COUNT; i++)
-				square[i].move(direction);
+			row += rowDelta(direction);
+			col += colDelta(direction);
 		}
 		// if we couldn't move, see if because we're at the bottom
 		else if (direction == Direction.DOWN) {
@@ -73,6 +186,20 @@ abstract public class AbstractPiece implements Piece {
 		}
 	}
 
+	/**
+	 * Returns how many rows this piece can move down before it lands, from the
+	 * column heights of the grid
+	 */
+	public int dropDistance() {
+		int distance = Grid.HEIGHT;
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			distance = Math.min(distance, grid.dropDistance(
+					row + template.getRowOffset(rotation, i),
+					col + template.getColOffset(rotation, i)));
+		}
+		return distance;
+	}
+
 	/**
 	 * Returns the (row,col) grid coordinates occupied by this Piece
 	 * 
@@ -81,17 +208,41 @@ abstract public class AbstractPiece implements Piece {
 	public Point[] getLocations() {
 		Point[] points = new Point[PIECE_COUNT];
 		for (int i = 0; i < PIECE_COUNT; i++) {
-			points[i] = new Point(square[i].getRow(), square[i].getCol());
+			points[i] = new Point(row + template.getRowOffset(rotation, i), col
+					+ template.getColOffset(rotation, i));
 		}
 		return points;
 	}
 
+	/**
+	 * Copies the (row,col) grid coordinates occupied by this Piece into the
+	 * given arrays. Unlike getLocations(), nothing is allocated.
+	 * 
+	 * @param rows
+	 *            receives the row of each square, at least PIECE_COUNT long
+	 * @param cols
+	 *            receives the column of each square, at least PIECE_COUNT
+	 *            long
+	 */
+	public void getLocations(int[] rows, int[] cols) {
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			rows[i] = row + template.getRowOffset(rotation, i);
+			cols[i] = col + template.getColOffset(rotation, i);
+		}
+	}
+
 	/**
 	 * Return the color of this piece
 	 */
 	public Color getColor() {
-		// all squares of this piece have the same color
-		return square[0].getColor();
+		return template.getColor();
+	}
+
+	/**
+	 * Returns the Palette index of the color of this piece
+	 */
+	public byte getColorIndex() {
+		return template.getColorIndex();
 	}
 
 	/**
@@ -102,50 +253,63 @@ abstract public class AbstractPiece implements Piece {
 		if (!ableToMove)
 			return false;
 
-		// Each square must be able to move in that direction
-		boolean answer = true;
-		for (int i = 0; i < PIECE_COUNT; i++) {
-			answer = answer && square[i].canMove(direction);
-		}
-
-		return answer;
+		// the whole piece must fit in the grid at its new location
+		return template.fits(grid, rotation, row + rowDelta(direction), col
+				+ colDelta(direction));
 	}
 	
 	/**
-	 * Checks if all the squares in the piece
-	 * are able to rotate
+	 * Checks if the piece is able to rotate, in place or shifted by one of the
+	 * wall kicks of its template
 	 */
 	public boolean canRotate() {
-		
-		boolean answer = true;
-		
-		for (int i = 0; i < PIECE_COUNT; i++) {
-
-			if (!square[i].canRotate(square[1])) {
-				
-				answer = false;
-				break;
-			}
-
-		}
-		
-		return answer;
+		return template.findKick(grid, rotation, row, col) >= 0;
 	}
 	
 	/**
-	 * Rotates the piece
+	 * Rotates the piece, shifted by the first wall kick of its template that
+	 * fits in the grid
 	 */
 	public void rotate() {
+		if (template.getRotationCount() == 1) {
+			return; // looks the same in every rotation state
+		}
 
-		if (canRotate()) {
-			
-			for (int i = 0; i < PIECE_COUNT; i++) {
-				
-				square[i].rotate(square[1]);
-			}
-			
+		int kick = template.findKick(grid, rotation, row, col);
+		if (kick >= 0) {
+			row += template.getKickRow(rotation, kick);
+			col += template.getKickCol(rotation, kick);
+			rotation = (rotation + 1) % ShapeTemplate.ROTATIONS;
 		}
 		
 	}
 
+	/**
+	 * Returns the change of row of a move in the given direction
+	 */
+	private static int rowDelta(Direction direction) {
+		switch (direction) {
+		case DOWN:
+			return 1;
+		case UP:
+			return -1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the change of column of a move in the given direction
+	 */
+	private static int colDelta(Direction direction) {
+		switch (direction) {
+		case LEFT:
+			return -1;
+		case RIGHT:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
 }
@@ -0,0 +1,386 @@
+import java.util.stream.IntStream;
+
+/**
+ * A computer player. For the current piece, every rotation and column that
+ * the piece can reach from where it is gets tried: the piece is dropped onto
+ * a copy of the grid, then every placement of the next piece is tried on
+ * that copy, and the pair is scored with a weighted heuristic (holes,
+ * aggregate height, bumpiness and lines). The player then plays the
+ * rotations, moves and drop of the best placement of the current piece.
+ * 
+ * The placements of the current piece can be evaluated in parallel on the
+ * common fork join pool. The best score of the next piece on a grid is kept
+ * in an EvaluationCache, keyed by the hash of the grid: different placements
+ * of the current piece often lead to the same grid.
+ * 
+ * @author dtabys
+ */
+public class AutoPlayer implements MovePolicy {
+
+	// weights of the heuristic
+	private static final double HEIGHT_WEIGHT = -0.510066;
+
+	private static final double LINES_WEIGHT = 0.760666;
+
+	private static final double HOLES_WEIGHT = -0.35663;
+
+	private static final double BUMPINESS_WEIGHT = -0.184483;
+
+	// most placements of one piece: every rotation and column
+	private static final int MAX_PLACEMENTS = ShapeTemplate.ROTATIONS
+			* Grid.WIDTH;
+
+	// rows a piece may move down before rotating, e.g. a bar at the top of
+	// the grid has no room to stand up
+	private static final int MAX_DOWN = 2;
+
+	/**
+	 * The placements of one piece and the grids to try them on. Every thread
+	 * has its own.
+	 */
+	private static class Search {
+		Grid afterCurrent = new Grid(); // the grid after the current piece
+
+		Grid afterNext = new Grid(); // ... and after the next piece
+
+		Placements next = new Placements();
+	}
+
+	/**
+	 * Where a piece can go: for each placement the moves down, the number of
+	 * rotations and the sideways move to play, and the rotation and pivot
+	 * before the drop. Package-private for the unit tests.
+	 */
+	static class Placements {
+		int count;
+
+		int[] down = new int[MAX_PLACEMENTS];
+
+		int[] rotations = new int[MAX_PLACEMENTS];
+
+		int[] shift = new int[MAX_PLACEMENTS];
+
+		int[] rotation = new int[MAX_PLACEMENTS];
+
+		int[] row = new int[MAX_PLACEMENTS];
+
+		int[] col = new int[MAX_PLACEMENTS];
+	}
+
+	private static final ThreadLocal<Search> SEARCH = ThreadLocal
+			.withInitial(Search::new);
+
+	// most entries of the cache of a player
+	public static final int CACHE_CAPACITY = 1 << 14;
+
+	private boolean parallel; // evaluate the placements in parallel?
+
+	private EvaluationCache cache; // or null
+
+	private Placements current = new Placements();
+
+	private double[] scores = new double[MAX_PLACEMENTS];
+
+	// the actions to play for the current piece
+	private Direction[] plan = new Direction[MAX_DOWN
+			+ ShapeTemplate.ROTATIONS + Grid.WIDTH + 1];
+
+	private int planLength;
+
+	private int planned; // actions of the plan already played
+
+	private AbstractPiece plannedPiece; // the piece the plan is for
+
+	private int plannedSerial; // its serial when it was planned
+
+	private long placements; // placements scored so far
+
+	/**
+	 * Creates a player
+	 * 
+	 * @param parallel
+	 *            true to evaluate the placements on several threads, e.g. in
+	 *            a real time game; false when many games already run in
+	 *            parallel
+	 */
+	public AutoPlayer(boolean parallel) {
+		this(parallel, new EvaluationCache(CACHE_CAPACITY));
+	}
+
+	/**
+	 * Creates a player
+	 * 
+	 * @param parallel
+	 *            true to evaluate the placements on several threads
+	 * @param cache
+	 *            keeps the evaluations of the next piece, null for none
+	 */
+	public AutoPlayer(boolean parallel, EvaluationCache cache) {
+		this.parallel = parallel;
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the cache of the evaluations, or null
+	 */
+	public EvaluationCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the number of placements scored so far
+	 */
+	public long getPlacements() {
+		return placements;
+	}
+
+	/**
+	 * Returns the next action of the plan for the current piece, planning it
+	 * first for a new piece
+	 */
+	public Direction nextAction(GameEngine game) {
+		AbstractPiece piece = game.getPiece();
+		if (piece == null) {
+			return Direction.DOWN;
+		}
+		if (piece != plannedPiece || piece.getSerial() != plannedSerial) {
+			plan(game.getGrid(), piece, game.getNextPiece());
+			plannedPiece = piece;
+			plannedSerial = piece.getSerial();
+		}
+		if (planned < planLength) {
+			return plan[planned++];
+		}
+		return Direction.DROP;
+	}
+
+	/**
+	 * Finds the best placement of the piece and makes the plan to get there
+	 */
+	private void plan(final Grid grid, AbstractPiece piece,
+			final int nextPiece) {
+		final ShapeTemplate t = piece.getTemplate();
+		findPlacements(grid, t, piece.getRotation(), piece.getRow(),
+				piece.getCol(), current);
+
+		if (parallel) {
+			IntStream.range(0, current.count).parallel().forEach(
+					i -> scores[i] = evaluate(grid, t, i, nextPiece));
+		} else {
+			for (int i = 0; i < current.count; i++) {
+				scores[i] = evaluate(grid, t, i, nextPiece);
+			}
+		}
+
+		int best = -1;
+		for (int i = 0; i < current.count; i++) {
+			if (best < 0 || scores[i] > scores[best]) {
+				best = i;
+			}
+		}
+
+		planLength = 0;
+		planned = 0;
+		if (best >= 0) {
+			for (int i = 0; i < current.down[best]; i++) {
+				plan[planLength++] = Direction.DOWN;
+			}
+			for (int i = 0; i < current.rotations[best]; i++) {
+				plan[planLength++] = Direction.ROTATE;
+			}
+			int shift = current.shift[best];
+			for (int i = 0; i < Math.abs(shift); i++) {
+				plan[planLength++] = shift < 0 ? Direction.LEFT
+						: Direction.RIGHT;
+			}
+		}
+		plan[planLength++] = Direction.DROP;
+	}
+
+	/**
+	 * Scores the i-th placement of the current piece: the best score of the
+	 * next piece on the grid where the current piece has landed
+	 */
+	private double evaluate(Grid grid, ShapeTemplate t, int i, int nextPiece) {
+		Search search = SEARCH.get();
+		search.afterCurrent.copyFrom(grid);
+		int lines = place(search.afterCurrent, t, current.rotation[i],
+				current.row[i], current.col[i]);
+
+		// the lines of the current piece add the same to every score
+		long hash = search.afterCurrent.getHash();
+		double best = cache != null ? cache.get(hash, nextPiece) : Double.NaN;
+		if (Double.isNaN(best)) {
+			best = evaluateNext(search, nextPiece);
+			if (cache != null) {
+				cache.put(hash, nextPiece, best);
+			}
+		}
+		return best + LINES_WEIGHT * lines;
+	}
+
+	/**
+	 * Returns the best score of the next piece on search.afterCurrent, not
+	 * counting the lines of the current piece
+	 */
+	private double evaluateNext(Search search, int nextPiece) {
+		ShapeTemplate nextT = ShapeTemplate.forPiece(nextPiece);
+		int row = Game.getSpawnRow(nextPiece);
+		int col = Game.getSpawnCol(nextPiece);
+		Placements next = search.next;
+		if (!nextT.fits(search.afterCurrent, 0, row, col)) {
+			return Double.NEGATIVE_INFINITY; // the game would be over
+		}
+		findPlacements(search.afterCurrent, nextT, 0, row, col, next);
+
+		double best = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < next.count; j++) {
+			search.afterNext.copyFrom(search.afterCurrent);
+			int nextLines = place(search.afterNext, nextT, next.rotation[j],
+					next.row[j], next.col[j]);
+			best = Math.max(best, score(search.afterNext, nextLines));
+		}
+		synchronized (this) {
+			placements += next.count;
+		}
+		return best;
+	}
+
+	/**
+	 * Finds every rotation and column a piece can reach by rotating it, then
+	 * moving it sideways. When a rotation has no room, the piece first moves
+	 * down a row or two. As in the game (and Perft.findPlacements), a move
+	 * that leaves the piece unable to fall locks it: a path ends at its first
+	 * such state, which is then where the piece lands.
+	 * 
+	 * @param grid
+	 *            the grid
+	 * @param t
+	 *            the shape of the piece
+	 * @param rotation
+	 *            the rotation of the piece
+	 * @param row
+	 *            the row of its pivot
+	 * @param col
+	 *            the column of its pivot
+	 * @param out
+	 *            receives the placements
+	 */
+	static void findPlacements(Grid grid, ShapeTemplate t, int rotation,
+			int row, int col, Placements out) {
+		out.count = 0;
+		for (int r = 0; r < t.getRotationCount(); r++) {
+			for (int d = 0; d <= MAX_DOWN; d++) {
+				// the piece moves down d rows while it is free to fall
+				if (d > 0 && !(t.fits(grid, rotation, row + d, col)
+						&& t.fits(grid, rotation, row + d + 1, col))) {
+					break;
+				}
+
+				// rotate r times, as AbstractPiece.rotate does, unless a
+				// rotation before the last one locks the piece
+				int rot = rotation, pr = row + d, pc = col;
+				boolean reached = true;
+				for (int k = 0; k < r && reached; k++) {
+					int kick = t.findKick(grid, rot, pr, pc);
+					if (kick < 0
+							|| (k > 0 && !t.fits(grid, rot, pr + 1, pc))) {
+						reached = false;
+					} else {
+						pr += t.getKickRow(rot, kick);
+						pc += t.getKickCol(rot, kick);
+						rot = (rot + 1) % ShapeTemplate.ROTATIONS;
+					}
+				}
+				if (!reached) {
+					continue;
+				}
+
+				add(out, d, r, 0, rot, pr, pc);
+				if ((d > 0 || r > 0) && !t.fits(grid, rot, pr + 1, pc)) {
+					break; // locked by the last move
+				}
+
+				// every column reachable to the left, then to the right,
+				// up to the first one where the piece locks
+				for (int c = pc - 1; t.fits(grid, rot, pr, c); c--) {
+					add(out, d, r, c - pc, rot, pr, c);
+					if (!t.fits(grid, rot, pr + 1, c)) {
+						break;
+					}
+				}
+				for (int c = pc + 1; t.fits(grid, rot, pr, c); c++) {
+					add(out, d, r, c - pc, rot, pr, c);
+					if (!t.fits(grid, rot, pr + 1, c)) {
+						break;
+					}
+				}
+				break;
+			}
+		}
+	}
+
+	/** Adds a placement */
+	private static void add(Placements out, int down, int rotations,
+			int shift, int rotation, int row, int col) {
+		int n = out.count++;
+		out.down[n] = down;
+		out.rotations[n] = rotations;
+		out.shift[n] = shift;
+		out.rotation[n] = rotation;
+		out.row[n] = row;
+		out.col[n] = col;
+	}
+
+	/**
+	 * Drops a piece onto the grid from the given rotation and pivot, and
+	 * returns the number of rows removed
+	 */
+	private static int place(Grid grid, ShapeTemplate t, int rotation,
+			int row, int col) {
+		int distance = Grid.HEIGHT;
+		for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+			distance = Math.min(distance, grid.dropDistance(
+					row + t.getRowOffset(rotation, i),
+					col + t.getColOffset(rotation, i)));
+		}
+		row += distance;
+		for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+			grid.set(row + t.getRowOffset(rotation, i),
+					col + t.getColOffset(rotation, i), t.getColorIndex());
+		}
+		int top = row + t.getTop(rotation);
+		return grid.checkRows(top, top + t.getHeight(rotation) - 1)
+				.getCount();
+	}
+
+	/**
+	 * Scores a grid: higher is better
+	 * 
+	 * @param grid
+	 *            the grid
+	 * @param lines
+	 *            rows removed to get to this grid
+	 */
+	public static double score(Grid grid, int lines) {
+		int height = 0, bumpiness = 0;
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			height += grid.getColumnHeight(c);
+			if (c > 0) {
+				bumpiness += Math.abs(grid.getColumnHeight(c)
+						- grid.getColumnHeight(c - 1));
+			}
+		}
+
+		// a hole is an empty square under an occupied one
+		int holes = 0, covered = 0;
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			int row = grid.getRow(r);
+			holes += Integer.bitCount(covered & ~row);
+			covered |= row;
+		}
+
+		return HEIGHT_WEIGHT * height + LINES_WEIGHT * lines + HOLES_WEIGHT
+				* holes + BUMPINESS_WEIGHT * bumpiness;
+	}
+}
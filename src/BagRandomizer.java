@@ -0,0 +1,94 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses the pieces with a "7-bag": the seven pieces are shuffled and dealt
+ * one after the other, then the bag is refilled and shuffled again. Every
+ * piece comes exactly once in each group of seven.
+ * 
+ * @author dtabys
+ */
+public class BagRandomizer implements PieceRandomizer {
+
+	private long seed;
+
+	private SeededRandom rand;
+
+	private int[] bag; // the pieces of the bag, in the order they are dealt
+
+	private int dealt; // number of pieces of the bag already dealt
+
+	/**
+	 * Creates a randomizer
+	 * 
+	 * @param seed
+	 *            the seed of the random numbers
+	 */
+	public BagRandomizer(long seed) {
+		this.seed = seed;
+		rand = new SeededRandom(seed);
+		bag = new int[PIECE_TYPES];
+		for (int i = 0; i < PIECE_TYPES; i++) {
+			bag[i] = i + 1;
+		}
+		dealt = PIECE_TYPES;
+	}
+
+	/**
+	 * Returns the next piece, between 1 and PIECE_TYPES
+	 */
+	public int next() {
+		if (dealt == PIECE_TYPES) {
+			// shuffle the bag (Fisher-Yates)
+			for (int i = PIECE_TYPES - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				int piece = bag[i];
+				bag[i] = bag[j];
+				bag[j] = piece;
+			}
+			dealt = 0;
+		}
+		return bag[dealt++];
+	}
+
+	/**
+	 * Returns the seed of this randomizer
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the name of this kind of randomizer
+	 */
+	public String getName() {
+		return "bag";
+	}
+
+	/**
+	 * Writes the state of this randomizer: STATE_SIZE bytes
+	 * 
+	 * @param out
+	 *            receives the state
+	 */
+	public void save(ByteBuffer out) {
+		out.putLong(rand.getState());
+		for (int i = 0; i < PIECE_TYPES; i++) {
+			out.put((byte) bag[i]);
+		}
+		out.put((byte) dealt);
+	}
+
+	/**
+	 * Sets the state of this randomizer to a state written by save
+	 * 
+	 * @param in
+	 *            holds the state, STATE_SIZE bytes
+	 */
+	public void restore(ByteBuffer in) {
+		rand.setState(in.getLong());
+		for (int i = 0; i < PIECE_TYPES; i++) {
+			bag[i] = in.get();
+		}
+		dealt = in.get();
+	}
+}
@@ -14,6 +14,11 @@ import java.awt.Color;
  */
 
 public class BarShape extends AbstractPiece {
+
+	// (row, col) of the squares from the pivot square, square 1
+	public static final ShapeTemplate TEMPLATE = new ShapeTemplate(6,
+			Color.cyan, new int[][] { { 0, -1 }, { 0, 0 },
+					{ 0, 1 }, { 0, 2 } }, true, 2);
 	
 	/**
 	 * Creates a Bar-Shape piece. See class description for actual location of r
@@ -30,12 +35,6 @@ public class BarShape extends AbstractPiece {
 	
 	public BarShape(int r, int c, Grid g) {
 		
-		super(r, c, g);
-
-		// Create the squares
-		square[0] = new Square(g, r, c - 1, Color.cyan, true);
-		square[1] = new Square(g, r, c, Color.cyan, true);
-		square[2] = new Square(g, r, c + 1, Color.cyan, true);
-		square[3] = new Square(g, r, c + 2, Color.cyan, true);
+		super(r, c, g, TEMPLATE);
 	}
 }
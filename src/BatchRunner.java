@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Plays many complete games without any display, spread over all the cores,
+ * and reports how fast they were played and how they went.
+ * 
+ * Every game has its own seed, drawn from the seed of the batch, split in a
+ * seed for its pieces and a seed for its policy: the same batch seed always
+ * plays the same games.
+ * 
+ * Usage: java BatchRunner [-games n] [-policy random|ai] [-randomizer
+ * uniform|bag|history] [-seed s] [-maxPieces n] [-threads n] [-metrics
+ * port] [-metricsAddress a]
+ * 
+ * With -metrics, the Metrics of the games are served to Prometheus on the
+ * given port of the loopback address, or of the -metricsAddress, while the
+ * batch runs.
+ * 
+ * @author dtabys
+ */
+public class BatchRunner {
+
+	private int games = 1000; // number of games to play
+
+	private String policy = "random";
+
+	private String randomizer = "uniform";
+
+	private long seed = 1;
+
+	private int maxPieces = 10000; // a game stops after this many pieces
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int metricsPort = -1; // serve the Metrics on this port if >= 0
+
+	private String metricsAddress; // of the Metrics, null for the loopback
+
+	/**
+	 * What happened in one game
+	 */
+	public static class GameResult {
+		private long moves; // actions played
+
+		private int pieces; // pieces created
+
+		private int lines; // rows removed
+
+		private long cacheHits; // evaluations found in the cache of an ai
+
+		private long cacheMisses;
+
+		public long getMoves() {
+			return moves;
+		}
+
+		public int getPieces() {
+			return pieces;
+		}
+
+		public int getLines() {
+			return lines;
+		}
+
+		public long getCacheHits() {
+			return cacheHits;
+		}
+
+		public long getCacheMisses() {
+			return cacheMisses;
+		}
+	}
+
+	/**
+	 * Creates a runner from the command line arguments
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if an argument is not valid
+	 */
+	public BatchRunner(String[] args) {
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for "
+						+ args[i]);
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-games":
+				games = Integer.parseInt(value);
+				break;
+			case "-policy":
+				policy = value;
+				break;
+			case "-randomizer":
+				randomizer = value;
+				break;
+			case "-seed":
+				seed = Long.parseLong(value);
+				break;
+			case "-maxPieces":
+				maxPieces = Integer.parseInt(value);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "-metrics":
+				metricsPort = Integer.parseInt(value);
+				break;
+			case "-metricsAddress":
+				metricsAddress = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid argument = "
+						+ args[i]);
+			}
+		}
+		// fail now rather than in every game
+		createPolicy(policy, 0);
+		createRandomizer(randomizer, 0);
+	}
+
+	/**
+	 * Returns a new policy
+	 * 
+	 * @param name
+	 *            random or ai
+	 * @param seed
+	 *            the seed of the policy
+	 * @throws IllegalArgumentException
+	 *             if there is no such policy
+	 */
+	public static MovePolicy createPolicy(String name, long seed) {
+		switch (name) {
+		case "random":
+			return new RandomPolicy(seed);
+		case "ai":
+			// the games already run in parallel
+			return new AutoPlayer(false);
+		}
+		throw new IllegalArgumentException("Invalid policy = " + name);
+	}
+
+	/**
+	 * Returns a new randomizer
+	 * 
+	 * @param name
+	 *            uniform, bag or history
+	 * @param seed
+	 *            the seed of the randomizer
+	 * @throws IllegalArgumentException
+	 *             if there is no such randomizer
+	 */
+	public static PieceRandomizer createRandomizer(String name, long seed) {
+		switch (name) {
+		case "uniform":
+			return new UniformRandomizer(seed);
+		case "bag":
+			return new BagRandomizer(seed);
+		case "history":
+			return new HistoryRandomizer(seed);
+		}
+		throw new IllegalArgumentException("Invalid randomizer = " + name);
+	}
+
+	/**
+	 * Plays one complete game
+	 * 
+	 * @param policy
+	 *            chooses the actions
+	 * @param randomizer
+	 *            chooses the pieces
+	 * @param maxPieces
+	 *            the game stops after this many pieces if it is not over
+	 */
+	public static GameResult play(MovePolicy policy,
+			PieceRandomizer randomizer, int maxPieces) {
+		Game game = new Game(randomizer);
+		GameResult result = new GameResult();
+		result.pieces = 1;
+		while (!game.isGameOver()) {
+			if (game.getPiece() == null) {
+				// the last piece was locked, the next tick creates a new one
+				if (result.pieces == maxPieces) {
+					break;
+				}
+				game.tick();
+				result.pieces++;
+			} else {
+				game.step(policy.nextAction(game));
+				result.moves++;
+			}
+		}
+		result.lines = game.getLinesCleared();
+		if (policy instanceof AutoPlayer
+				&& ((AutoPlayer) policy).getCache() != null) {
+			EvaluationCache cache = ((AutoPlayer) policy).getCache();
+			result.cacheHits = cache.getHits();
+			result.cacheMisses = cache.getMisses();
+		}
+		return result;
+	}
+
+	/**
+	 * Plays all the games of the batch on a pool of threads
+	 * 
+	 * @return the results of the games, in the order of their seeds
+	 */
+	public GameResult[] run() {
+		// the seeds are drawn in order, whatever thread plays each game
+		SplittableRandom seeds = new SplittableRandom(seed);
+		final long[] gameSeeds = new long[games];
+		for (int i = 0; i < games; i++) {
+			gameSeeds[i] = seeds.nextLong();
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<ForkJoinTask<GameResult>> tasks = new ArrayList<ForkJoinTask<GameResult>>(
+					games);
+			for (int i = 0; i < games; i++) {
+				// two SplitMix steps of the game seed: the pieces and the
+				// policy of a game use unrelated random numbers
+				SeededRandom split = new SeededRandom(gameSeeds[i]);
+				final long pieceSeed = split.nextLong();
+				final long policySeed = split.nextLong();
+				tasks.add(pool.submit(() -> play(
+						createPolicy(policy, policySeed),
+						createRandomizer(randomizer, pieceSeed), maxPieces)));
+			}
+			GameResult[] results = new GameResult[games];
+			for (int i = 0; i < games; i++) {
+				results[i] = tasks.get(i).join();
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Plays the batch given by the arguments and prints a report
+	 */
+	public static void main(String[] args) throws IOException {
+		BatchRunner runner = new BatchRunner(args);
+		if (runner.metricsPort >= 0) {
+			new MetricsServer(runner.metricsAddress, runner.metricsPort);
+		}
+		long start = System.nanoTime();
+		GameResult[] results = runner.run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long moves = 0, lines = 0, hits = 0, misses = 0;
+		int[] pieces = new int[results.length];
+		for (int i = 0; i < results.length; i++) {
+			moves += results[i].getMoves();
+			lines += results[i].getLines();
+			hits += results[i].getCacheHits();
+			misses += results[i].getCacheMisses();
+			pieces[i] = results[i].getPieces();
+		}
+		Arrays.sort(pieces);
+
+		System.out.printf("%d games, policy %s, randomizer %s, seed %d, %d threads%n",
+				results.length, runner.policy, runner.randomizer, runner.seed,
+				runner.threads);
+		System.out.printf("time          %.3f s%n", seconds);
+		System.out.printf("games/s       %.1f%n", results.length / seconds);
+		System.out.printf("moves/s       %.0f%n", moves / seconds);
+		System.out.printf("moves         %d%n", moves);
+		System.out.printf("lines cleared %d (%.2f per game)%n", lines,
+				(double) lines / results.length);
+		if (results.length > 0) {
+			System.out.printf("pieces/game   min %d, median %d, 90%% %d, 99%% %d, max %d%n",
+					pieces[0], percentile(pieces, 50), percentile(pieces, 90),
+					percentile(pieces, 99), pieces[pieces.length - 1]);
+		}
+		if (hits + misses > 0) {
+			System.out.printf("cache         %d hits, %d misses (%.1f%% hits)%n",
+					hits, misses, 100.0 * hits / (hits + misses));
+		}
+	}
+
+	/**
+	 * Returns the given percentile of sorted values
+	 */
+	private static int percentile(int[] sorted, int percent) {
+		int i = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, i)];
+	}
+}
@@ -0,0 +1,79 @@
+import java.awt.Graphics;
+
+/**
+ * A copy of what a game shows at one moment: the grid, the piece and whether
+ * the game is over. A snapshot is written by the thread running the game and
+ * drawn by the Swing thread, see TripleBuffer.
+ * 
+ * @author dtabys
+ */
+public class BoardSnapshot {
+
+	private Grid grid; // copy of the grid of the game
+
+	// the grid copied last and its modification count, to only copy a grid
+	// that has changed
+	private Grid source;
+
+	private int sourceModCount;
+
+	// locations and Palette color of the piece, pieceColor is Palette.EMPTY
+	// without a piece
+	private int[] pieceRows = new int[AbstractPiece.PIECE_COUNT];
+
+	private int[] pieceCols = new int[AbstractPiece.PIECE_COUNT];
+
+	private byte pieceColor;
+
+	private boolean gameOver;
+
+	/**
+	 * Creates an empty snapshot
+	 */
+	public BoardSnapshot() {
+		grid = new Grid();
+	}
+
+	/**
+	 * Copies the current state of the given game into this snapshot
+	 * 
+	 * @param game
+	 *            the game to copy
+	 */
+	public void copyFrom(GameEngine game) {
+		Grid g = game.getGrid();
+		if (g != source || g.getModCount() != sourceModCount) {
+			grid.copyFrom(g);
+			source = g;
+			sourceModCount = g.getModCount();
+		}
+
+		AbstractPiece piece = game.getPiece();
+		if (piece == null) {
+			pieceColor = Palette.EMPTY;
+		} else {
+			piece.getLocations(pieceRows, pieceCols);
+			pieceColor = piece.getColorIndex();
+		}
+		gameOver = game.isGameOver();
+	}
+
+	/**
+	 * Returns true if the game was over when the snapshot was taken
+	 */
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	/**
+	 * Draws the snapshot on the given Graphics context
+	 */
+	public void draw(Graphics g) {
+		grid.draw(g);
+		if (pieceColor != Palette.EMPTY) {
+			for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+				Square.draw(g, pieceRows[i], pieceCols[i], pieceColor);
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of board evaluations, keyed by the Zobrist hash of a grid
+ * and a piece: e.g. the best score the AutoPlayer can get by placing that
+ * piece on that grid. Searches meet the same boards again and again; the
+ * cache saves evaluating them twice.
+ * 
+ * The entries are kept in sets of WAYS slots: a key can only go in the set
+ * picked by its hash. When its set is full, the CLOCK algorithm picks the
+ * entry to replace: each set has a hand going round its slots, skipping (and
+ * clearing the reference bit of) the entries used since the hand last
+ * passed, and replacing the first entry that was not.
+ * 
+ * The hits and misses are counted, to size the cache against the search. The
+ * cache can be shared by several threads, e.g. the workers of a parallel
+ * AutoPlayer: a set is locked by one of STRIPES locks picked by its number,
+ * so that threads looking at different sets rarely wait for each other.
+ * 
+ * @author dtabys
+ */
+public class EvaluationCache {
+
+	public static final int WAYS = 8; // slots per set
+
+	public static final int STRIPES = 64; // locks, a power of 2
+
+	private int setMask; // sets - 1, the number of sets is a power of 2
+
+	private long[] hashes;
+
+	private byte[] pieces; // 0 for an empty slot
+
+	private double[] values;
+
+	private boolean[] referenced; // used since the hand last passed?
+
+	private byte[] hands; // the next slot the hand of each set looks at
+
+	private Object[] locks; // the lock of a set is locks[set & stripeMask]
+
+	private int stripeMask;
+
+	private LongAdder hits = new LongAdder();
+
+	private LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates an empty cache
+	 * 
+	 * @param capacity
+	 *            the most entries to keep, rounded up to a power of 2 no
+	 *            smaller than WAYS
+	 */
+	public EvaluationCache(int capacity) {
+		int sets = Integer.highestOneBit(Math.max(capacity - 1, WAYS) / WAYS);
+		if (sets * WAYS < capacity) {
+			sets *= 2;
+		}
+		setMask = sets - 1;
+		hashes = new long[sets * WAYS];
+		pieces = new byte[sets * WAYS];
+		values = new double[sets * WAYS];
+		referenced = new boolean[sets * WAYS];
+		hands = new byte[sets];
+		locks = new Object[Math.min(sets, STRIPES)];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+		stripeMask = locks.length - 1;
+	}
+
+	/**
+	 * Returns the most entries the cache keeps
+	 */
+	public int getCapacity() {
+		return hashes.length;
+	}
+
+	/**
+	 * Returns the value kept for a grid and a piece, or NaN if there is none
+	 * 
+	 * @param hash
+	 *            the Zobrist hash of the grid
+	 * @param piece
+	 *            the number of the piece, from 1 to PieceRandomizer.PIECE_TYPES
+	 */
+	public double get(long hash, int piece) {
+		int set = set(hash, piece);
+		int first = set * WAYS;
+		synchronized (locks[set & stripeMask]) {
+			for (int i = first; i < first + WAYS; i++) {
+				if (pieces[i] == piece && hashes[i] == hash) {
+					referenced[i] = true;
+					hits.increment();
+					return values[i];
+				}
+			}
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Keeps the value of a grid and a piece, replacing another entry if its
+	 * set is full
+	 * 
+	 * @param hash
+	 *            the Zobrist hash of the grid
+	 * @param piece
+	 *            the number of the piece, from 1 to PieceRandomizer.PIECE_TYPES
+	 * @param value
+	 *            the value to keep
+	 */
+	public void put(long hash, int piece, double value) {
+		int set = set(hash, piece);
+		int first = set * WAYS;
+		synchronized (locks[set & stripeMask]) {
+			int slot = -1;
+			for (int i = first; i < first + WAYS && slot < 0; i++) {
+				if (pieces[i] == 0
+						|| (pieces[i] == piece && hashes[i] == hash)) {
+					slot = i;
+				}
+			}
+
+			// the set is full: move the hand past the recently used entries
+			while (slot < 0) {
+				int i = first + hands[set];
+				hands[set] = (byte) ((hands[set] + 1) % WAYS);
+				if (referenced[i]) {
+					referenced[i] = false;
+				} else {
+					slot = i;
+				}
+			}
+
+			hashes[slot] = hash;
+			pieces[slot] = (byte) piece;
+			values[slot] = value;
+			referenced[slot] = false;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a value
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that found nothing
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Removes every entry and resets the counters. The sets are cleared one
+	 * after the other: a value put by another thread meanwhile may be kept.
+	 */
+	public void clear() {
+		for (int set = 0; set <= setMask; set++) {
+			synchronized (locks[set & stripeMask]) {
+				for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+					pieces[i] = 0;
+					referenced[i] = false;
+				}
+				hands[set] = 0;
+			}
+		}
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Returns the set of a key: the bits of the hash are mixed with the piece
+	 * so that the same grid with different pieces lands in different sets
+	 */
+	private int set(long hash, int piece) {
+		long h = (hash + piece) * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & setMask;
+	}
+}
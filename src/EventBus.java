@@ -0,0 +1,248 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Carries the GameEvents of a game from the thread running it to any number
+ * of subscribers, each on its own thread (e.g. sound, statistics, network).
+ * 
+ * The events go through a ring of preallocated slots written by a single
+ * producer, the thread running the game: it claims the next slot, fills its
+ * event and publishes it by advancing the cursor. The producer never waits
+ * for the subscribers: a subscriber that falls behind by more than the
+ * capacity of the ring has its oldest events overwritten. Each slot holds
+ * the sequence number of its event, so a subscriber can tell that it has
+ * been lapped and skips what it missed.
+ * 
+ * A subscriber checks the sequence of a slot before and after copying its
+ * event, as in a seqlock: an event overwritten during the copy is counted as
+ * missed, not delivered torn. A subscriber with nothing to read parks for
+ * IDLE_TIME.
+ * 
+ * @author dtabys
+ */
+public class EventBus {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	public static final long IDLE_TIME = 1_000_000L; // in ns
+
+	private static final long BUSY = -1; // sequence of a slot being written
+
+	/**
+	 * One slot of the ring: an event and its sequence number
+	 */
+	private static class Slot {
+		volatile long sequence = BUSY;
+
+		final GameEvent event = new GameEvent();
+	}
+
+	private Slot[] ring;
+
+	private int mask; // capacity - 1
+
+	private volatile long cursor = -1; // sequence of the last event published
+
+	private long claimed = -1; // sequence of the slot claimed, producer only
+
+	/**
+	 * Creates a bus with a ring of DEFAULT_CAPACITY events
+	 */
+	public EventBus() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a bus
+	 * 
+	 * @param capacity
+	 *            the number of events in the ring, a power of 2
+	 * @throws IllegalArgumentException
+	 *             if capacity is not a power of 2
+	 */
+	public EventBus(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Invalid capacity = "
+					+ capacity);
+		ring = new Slot[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new Slot();
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Returns the number of events in the ring
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * Returns the number of events published so far
+	 */
+	public long getPublished() {
+		return cursor + 1;
+	}
+
+	/**
+	 * Claims the next slot of the ring, to be filled and then published.
+	 * Called by the producer only.
+	 * 
+	 * @param type
+	 *            the type of the event
+	 * @return the event of the slot, with the fields of the event it held
+	 */
+	GameEvent claim(GameEvent.Type type) {
+		claimed = cursor + 1;
+		Slot slot = ring[(int) claimed & mask];
+		slot.sequence = BUSY;
+		// the event must not change before the subscribers can see BUSY
+		VarHandle.storeStoreFence();
+		slot.event.type = type;
+		return slot.event;
+	}
+
+	/**
+	 * Publishes the event claimed last. Called by the producer only.
+	 */
+	void publish() {
+		ring[(int) claimed & mask].sequence = claimed;
+		cursor = claimed;
+	}
+
+	/**
+	 * Delivers the events published from now on to the given listener, on a
+	 * new daemon thread
+	 * 
+	 * @param listener
+	 *            the listener of the events
+	 * @param name
+	 *            the name of the thread
+	 * @return the subscriber, to close it
+	 */
+	public Subscriber subscribe(GameEventListener listener, String name) {
+		Subscriber subscriber = new Subscriber(listener);
+		subscriber.thread = new Thread(subscriber, name);
+		subscriber.thread.setDaemon(true);
+		subscriber.thread.start();
+		return subscriber;
+	}
+
+	/**
+	 * Reads the events of the bus on its own thread and hands them to a
+	 * listener
+	 */
+	public class Subscriber implements Runnable {
+
+		private GameEventListener listener;
+
+		private Thread thread;
+
+		private volatile boolean running = true;
+
+		private long next; // sequence of the next event to read
+
+		private GameEvent event = new GameEvent(); // the copy delivered
+
+		private volatile long delivered;
+
+		private volatile long missed;
+
+		private Subscriber(GameEventListener listener) {
+			this.listener = listener;
+			next = cursor + 1;
+		}
+
+		/**
+		 * Returns the number of events handed to the listener
+		 */
+		public long getDelivered() {
+			return delivered;
+		}
+
+		/**
+		 * Returns the number of events overwritten before they were read
+		 */
+		public long getMissed() {
+			return missed;
+		}
+
+		/**
+		 * Delivers the events already published, then stops the thread and
+		 * waits for it
+		 * 
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		public void close() throws InterruptedException {
+			running = false;
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+
+		/**
+		 * Delivers the events until closed
+		 */
+		public void run() {
+			boolean last = false;
+			while (!last) {
+				last = !running; // one more pass after close
+				if (!drain() && !last) {
+					LockSupport.parkNanos(this, IDLE_TIME);
+				}
+			}
+		}
+
+		/**
+		 * Delivers the events published since the last call, returns false
+		 * if there were none
+		 */
+		private boolean drain() {
+			long available = cursor;
+			if (next > available) {
+				return false;
+			}
+			long lost = 0;
+			while (next <= available) {
+				if (available - next >= ring.length) {
+					// lapped: the oldest events left are the last capacity
+					lost += available - ring.length + 1 - next;
+					next = available - ring.length + 1;
+				}
+				Slot slot = ring[(int) next & mask];
+				if (slot.sequence == next) {
+					event.copyFrom(slot.event);
+					// the copy is only good if the slot did not change
+					VarHandle.loadLoadFence();
+					if (slot.sequence == next) {
+						if (lost > 0) {
+							report(lost);
+							lost = 0;
+						}
+						listener.onEvent(event);
+						delivered++;
+						next++;
+						continue;
+					}
+				}
+				// overwritten, or being overwritten
+				lost++;
+				next++;
+				available = Math.max(available, cursor);
+			}
+			if (lost > 0) {
+				report(lost);
+			}
+			return true;
+		}
+
+		/**
+		 * Counts and reports events that were overwritten
+		 */
+		private void report(long lost) {
+			missed += lost;
+			listener.onMissed(lost);
+		}
+	}
+}
@@ -1,98 +1,341 @@
 /**
- * Handles events for the Tetris Game.  User events (key strokes) as well as periodic timer
- * events.
+ * Handles events for the Tetris Game.  User events (key strokes) as well as periodic game
+ * loop events. A GameLoop thread keeps the time and the piece falls on the
+ * Swing thread. The keys go through an InputQueue, played at every tick of
+ * the loop with their auto-shift. When the game runs on a SimulationThread,
+ * the thread plays the InputQueue and moves the piece down itself. When a replay is
+ * played, the loop plays its events one tick at a time instead of the keys
+ * and the gravity.
  * 
  * @author dtabys
  */
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JFrame;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 
-public class EventController extends KeyAdapter implements ActionListener {
+public class EventController extends KeyAdapter implements Runnable {
 
-	private Game game; // current game: grid and current piece
-	private Timer timer;
+	private GameEngine game; // current game: grid and current piece
+	private GameLoop loop;
 
-	private static final double PIECE_MOVE_TIME = 0.8; // wait 0.8 s every time
+	private Gravity gravity; // played on the Swing thread
+
+	// the keys of the user, played at every loop tick
+	private InputQueue input = new InputQueue();
+
+	// plays the game instead of the user, or null
+	private volatile MovePolicy player;
+
+	private int playerTicks; // loop ticks since the last action of the player
+
+	// loop ticks to play on the Swing thread
+	private AtomicInteger ticksDue = new AtomicInteger();
+
+	// plays the loop ticks that are due on the Swing thread
+	private Runnable playTicks = new Runnable() {
+		public void run() {
+			for (int n = ticksDue.getAndSet(0); n > 0 && !gameOver; n--) {
+				playTick();
+			}
+		}
+	};
+
+	// records the end of every loop tick, or null
+	private volatile ReplayRecorder recorder;
+
+	// the replay played instead of the keys and gravity, or null
+	private ReplayPlayer replay;
+
+	private Game replayGame; // the game of the replay
+
+	public static final int SEEK_TIME = 10; // seconds skipped by a seek
+
+	// loop ticks of the replay to play on the Swing thread
+	private AtomicInteger framesDue = new AtomicInteger();
+
+	// plays the loop ticks of the replay that are due on the Swing thread
+	private Runnable playFrames = new Runnable() {
+		public void run() {
+			// at the end of the replay the loop goes on, for the seeks
+			for (int n = framesDue.getAndSet(0); n > 0; n--) {
+				if (!replay.playFrame(game)) {
+					break;
+				}
+			}
+		}
+	};
+
+	// runs the game when it is not run on the Swing thread
+	private SimulationThread simulation;
+
+	private PerfHud hud; // measures the moves and the fall, or null
+
+	public static final double PIECE_MOVE_TIME = 0.8; // wait 0.8 s every time
 														// the piece moves down
 														// increase to slow it
 														// down
 
+	public static final int TICK_RATE = 60; // game loop ticks per second
+
+	public static final int PLAYER_PERIOD = 6; // loop ticks between two
+												// actions of the player
+
 	private boolean gameOver;
 
 	/**
-	 * Creates an EventController to handle key and timer events.
+	 * Creates an EventController to handle key and game loop events.
 	 * 
 	 * @param game
 	 *            the game this is controlling
 	 */
-	public EventController(Game game) {
+	public EventController(GameEngine game) {
+		this.game = game;
+		gameOver = false;
+		gravity = Gravity.fromPeriod(PIECE_MOVE_TIME, TICK_RATE);
+		loop = new GameLoop(TICK_RATE, this);
+		loop.start("Tetris game loop");
+	}
+
+	/**
+	 * Creates an EventController that plays a replay in real time: the left
+	 * and right keys seek SEEK_TIME seconds back and forth
+	 * 
+	 * @param game
+	 *            the game made by the replay
+	 * @param replay
+	 *            the replay to play
+	 */
+	public EventController(Game game, ReplayPlayer replay) {
 		this.game = game;
+		this.replayGame = game;
+		this.replay = replay;
 		gameOver = false;
-		double delay = 1000 * PIECE_MOVE_TIME; // in milliseconds
-		timer = new Timer((int) delay, this);
-		timer.setCoalesce(true); // if multiple events pending, bunch them to
-		// 1 event
-		timer.start();
+		loop = new GameLoop(replay.getTickRate(), this);
+		loop.start("Tetris replay");
+	}
+
+	/**
+	 * Creates an EventController that posts the key events to a game running
+	 * on a simulation thread.
+	 * 
+	 * @param simulation
+	 *            the thread running the game
+	 */
+	public EventController(SimulationThread simulation) {
+		this.simulation = simulation;
+		simulation.setInput(input);
+		gameOver = false;
+	}
+
+	/**
+	 * Returns the queue of the keys of the user, e.g. to change its
+	 * auto-shift
+	 */
+	public InputQueue getInput() {
+		return input;
+	}
+
+	/**
+	 * Lets a policy play the game instead of the user, one action every
+	 * PLAYER_PERIOD loop ticks
+	 * 
+	 * @param player
+	 *            the policy, or null to give the game back to the user
+	 */
+	public void setPlayer(MovePolicy player) {
+		if (simulation != null) {
+			simulation.setPlayer(player, PLAYER_PERIOD);
+		} else {
+			this.player = player;
+		}
+	}
+
+	/**
+	 * Records the end of every loop tick in a replay log, so that the replay
+	 * can be played at the same speed
+	 * 
+	 * @param recorder
+	 *            the replay log of the game, or null
+	 */
+	public void setRecorder(ReplayRecorder recorder) {
+		if (simulation != null) {
+			simulation.setRecorder(recorder);
+		} else {
+			this.recorder = recorder;
+		}
+	}
+
+	/**
+	 * Records the time of the moves and the fall of the piece. Call before
+	 * the game starts.
+	 * 
+	 * @param hud
+	 *            the performance overlay, or null
+	 */
+	public void setHud(PerfHud hud) {
+		if (simulation != null) {
+			simulation.setHud(hud);
+		} else {
+			this.hud = hud;
+		}
 	}
 
 	/**
 	 * Responds to special keys being pressed.
 	 * 
-	 * Currently just responds to the space key and the q(uit) key
+	 * Q quits. The keys of the game (see control) are queued in the
+	 * InputQueue, to be played at the next tick. In a replay the left and
+	 * right arrows seek.
 	 */
 	public void keyPressed(KeyEvent e) {
 		// if 'Q', quit the game
 		if (e.getKeyCode() == KeyEvent.VK_Q) {
-			timer.stop();
+			if (simulation != null) {
+				simulation.stop();
+			} else {
+				loop.stop();
+			}
 			((JFrame) e.getSource()).dispose();
 		}
-		if (!gameOver) {
+		if (replay != null) {
+			long frames = (long) SEEK_TIME * replay.getTickRate();
 			switch (e.getKeyCode()) {
-			// if the user presses Space or Down Arrow
-			// the block will go down instantaneously
-			case KeyEvent.VK_SPACE:
-				handleMove(Direction.DROP);
-				break;
-			
-			// if the user presses Down Arrow the block will rotate
-			case KeyEvent.VK_DOWN:
-				handleMove(Direction.ROTATE);
-				break;
-				
-			// if the user presses Left Arrow the block will move one square to the left
 			case KeyEvent.VK_LEFT:
-				handleMove(Direction.LEFT);
+				replay.seek(replayGame, Math.max(0, replay.getFrame() - frames));
 				break;
-			
-			// if the user presses Right Arrow the block will move one square to the right
 			case KeyEvent.VK_RIGHT:
-				handleMove(Direction.RIGHT);
+				replay.seek(replayGame, replay.getFrame() + frames);
 				break;
 			}
+		} else if (!gameOver) {
+			InputQueue.Control control = control(e.getKeyCode());
+			if (control != null) {
+				input.press(control, System.nanoTime());
+			}
 		}
 	}
 
-	/** Updates the game periodically based on a timer event */
-	public void actionPerformed(ActionEvent e) {
-		handleMove(Direction.DOWN);
+	/**
+	 * Queues the release of the keys of the game in the InputQueue
+	 */
+	public void keyReleased(KeyEvent e) {
+		InputQueue.Control control = control(e.getKeyCode());
+		if (replay == null && control != null) {
+			input.release(control, System.nanoTime());
+		}
 	}
 
 	/**
-	 * Update the game by moving in the given direction
+	 * Returns the control of the game given by a key, or null
+	 * 
+	 * @param keyCode
+	 *            the code of the key, e.g. KeyEvent.VK_LEFT
 	 */
-	private void handleMove(Direction direction) {
-		if (direction == Direction.ROTATE){
-			game.rotatePiece();
-		} else {
-			game.movePiece(direction);
+	public static InputQueue.Control control(int keyCode) {
+		switch (keyCode) {
+		// if the user presses Space the block will go down instantaneously
+		case KeyEvent.VK_SPACE:
+			return InputQueue.Control.DROP;
+
+		// if the user presses Down Arrow the block will rotate
+		case KeyEvent.VK_DOWN:
+			return InputQueue.Control.ROTATE;
+
+		// while the user holds Left or Right Arrow the block moves one square
+		// to the left or right, then repeats after the auto-shift delay
+		case KeyEvent.VK_LEFT:
+			return InputQueue.Control.LEFT;
+
+		case KeyEvent.VK_RIGHT:
+			return InputQueue.Control.RIGHT;
+
+		// while the user holds S the block goes down faster
+		case KeyEvent.VK_S:
+			return InputQueue.Control.SOFT_DROP;
+
+		default:
+			return null;
 		}
+	}
+
+	/**
+	 * Updates the game periodically based on a game loop tick. Runs on the
+	 * loop thread: the ticks are played on the Swing thread, and only posted
+	 * once until they have been played.
+	 */
+	public void run() {
+		if (replay != null) {
+			if (framesDue.getAndIncrement() == 0) {
+				SwingUtilities.invokeLater(playFrames);
+			}
+			return;
+		}
+		if (ticksDue.getAndIncrement() == 0) {
+			SwingUtilities.invokeLater(playTicks);
+		}
+	}
+
+	/**
+	 * Plays one loop tick on the Swing thread, like SimulationThread.run: the
+	 * keys of the user, the action of the player, the gravity, then the end
+	 * of the frame in the replay log, so that the frames of the log end where
+	 * their moves were played. The player plans its action before the tick
+	 * is measured, so that the Tick event and the tick time cover the same
+	 * work.
+	 */
+	private void playTick() {
+		Direction action = null;
+		MovePolicy p = player;
+		if (p != null && ++playerTicks >= PLAYER_PERIOD
+				&& !game.isGameOver()) {
+			playerTicks = 0;
+			action = p.nextAction(game);
+		}
+
+		FlightEvents.Tick tick = null; // only when recorded
+		if (FlightEvents.TICK.isEnabled()) {
+			tick = new FlightEvents.Tick();
+			tick.begin();
+		}
+		long start = System.nanoTime();
+		input.tick(game, start);
+		if (action != null && !game.isGameOver()) {
+			game.step(action);
+		}
+		Gravity.fall(game, gravity.advance());
+		// every tick, played or idle, as on a SimulationThread
+		recordTick(start, tick);
+		ReplayRecorder r = recorder;
+		if (r != null) {
+			r.frame();
+		}
+		checkGameOver();
+	}
+
+	/**
+	 * Ends the Tick event, if any, and records the time since start in the
+	 * Metrics and the performance overlay, if any
+	 */
+	private void recordTick(long start, FlightEvents.Tick tick) {
+		if (tick != null) {
+			tick.commit();
+		}
+		long time = System.nanoTime() - start;
+		Metrics.TICK_TIME.observe(time);
+		if (hud != null) {
+			hud.recordTick(time);
+		}
+	}
+
+	/**
+	 * Stops the game loop once the game is over
+	 */
+	private void checkGameOver() {
 		gameOver = game.isGameOver();
 		if (gameOver)
-			timer.stop();
+			loop.stop();
 	}
 }
@@ -0,0 +1,100 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder events of the game, to see what the game was doing
+ * next to the GC pauses, safepoints and other JVM events of a recording in
+ * JDK Mission Control, e.g. when a frame was late:
+ * 
+ * java -XX:StartFlightRecording:filename=tetris.jfr -jar tetris.jar
+ * 
+ * An event is only created when a recording enables its type, checked with
+ * the EventTypes below, so that a game that is not recorded allocates nothing
+ * for its events.
+ * 
+ * @author dtabys
+ */
+public final class FlightEvents {
+
+	public static final EventType PIECE_SPAWN = EventType
+			.getEventType(PieceSpawn.class);
+
+	public static final EventType PIECE_LOCK = EventType
+			.getEventType(PieceLock.class);
+
+	public static final EventType LINE_CLEAR = EventType
+			.getEventType(LineClear.class);
+
+	public static final EventType TICK = EventType.getEventType(Tick.class);
+
+	public static final EventType PAINT = EventType.getEventType(Paint.class);
+
+	private FlightEvents() {
+	}
+
+	/**
+	 * A new piece at the top of the grid
+	 */
+	@Name("tetris.PieceSpawn")
+	@Label("Piece Spawn")
+	@Category("Tetris")
+	public static class PieceSpawn extends Event {
+		@Label("Piece")
+		@Description("The number of the piece, from 1 (Z) to 7 (L)")
+		int piece;
+	}
+
+	/**
+	 * A piece locked in the grid
+	 */
+	@Name("tetris.PieceLock")
+	@Label("Piece Lock")
+	@Category("Tetris")
+	public static class PieceLock extends Event {
+		@Label("Piece")
+		@Description("The number of the piece, from 1 (Z) to 7 (L)")
+		int piece;
+
+		@Label("Top")
+		@Description("The highest row of the piece")
+		int top;
+	}
+
+	/**
+	 * Full rows removed after a piece locked
+	 */
+	@Name("tetris.LineClear")
+	@Label("Line Clear")
+	@Category("Tetris")
+	public static class LineClear extends Event {
+		@Label("Rows")
+		int rows;
+
+		@Label("Lines Cleared")
+		@Description("The lines cleared in the game so far")
+		int linesCleared;
+	}
+
+	/**
+	 * The work of one tick of the game loop: the moves and the fall of the
+	 * piece
+	 */
+	@Name("tetris.Tick")
+	@Label("Game Tick")
+	@Category("Tetris")
+	public static class Tick extends Event {
+	}
+
+	/**
+	 * One paint of the game window
+	 */
+	@Name("tetris.Paint")
+	@Label("Paint")
+	@Category("Tetris")
+	public static class Paint extends Event {
+	}
+}
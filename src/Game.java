@@ -1,79 +1,358 @@
-import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Point;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
 
 /**
  * Manages the game Tetris. Keeps track of the current piece and the grid.
- * Updates the display whenever the state of the game has changed.
+ * Notifies its listeners (e.g. the display) whenever the state of the game has
+ * changed. A game does not need a display and can run headless.
  * 
  * @author dtabys
  */
-public class Game {
+public class Game implements GameEngine {
 
 	private Grid grid; // the grid that makes up the Tetris board
 
-	private Tetris display; // the visual for the Tetris game
+	// notified whenever the state of the game has changed
+	private ArrayList<GameListener> listeners;
 	
-	private AbstractPiece piece; // the current piece that is dropping
+	private AbstractPiece piece; // the current piece that is dropping, or null
+
+	// the only piece of the game, reset to the template of every new piece
+	private AbstractPiece livePiece;
 
 	private boolean isOver; // has the game finished?
+
+	// the rows removed when the last piece was locked
+	private LineClearResult lastClear = LineClearResult.NONE;
+
+	private int linesCleared; // total number of rows removed
+
+	// locations of the squares of the piece, reused to avoid allocations
+	private int[] pieceRows = new int[AbstractPiece.PIECE_COUNT];
+
+	private int[] pieceCols = new int[AbstractPiece.PIECE_COUNT];
 	
-	private static Random rand = new Random();
+	private PieceRandomizer randomizer; // chooses the pieces of this game
+
+	private int nextPiece; // the piece created after the current one
+
+	private ReplayRecorder recorder; // records the moves, or null
+
+	private EventBus events; // carries the events of the game, or null
+
+	// bytes written by writeState
+	public static final int STATE_SIZE = Grid.SNAPSHOT_SIZE + 10
+			+ PieceRandomizer.STATE_SIZE;
+
+	// row and column given to the constructor of each piece when it is
+	// created, [pieceNum - 1]
+	private static final int[] SPAWN_ROWS = { 0, 0, 1, 0, 0, 0, 1 };
+
+	private static final int[] SPAWN_COLS = { Grid.WIDTH / 2 - 1,
+			Grid.WIDTH / 2, Grid.WIDTH / 2, Grid.WIDTH / 2 - 1, Grid.WIDTH / 2,
+			Grid.WIDTH / 2 - 1, Grid.WIDTH / 2 - 1 };
 
 	/**
-	 * Creates a Tetris game
+	 * Creates a Tetris game without any listener, with random pieces from a
+	 * random seed
+	 */
+	public Game() {
+		this(new UniformRandomizer(new SplittableRandom().nextLong()));
+	}
+
+	/**
+	 * Creates a Tetris game without any listener
 	 * 
-	 * @param Tetris
-	 *            the display
+	 * @param randomizer
+	 *            chooses the pieces of the game
 	 */
-	public Game(Tetris display) {
+	public Game(PieceRandomizer randomizer) {
 		grid = new Grid();
-		this.display = display;
-		// create a random piece
-		createPiece(rand.nextInt(7) + 1);
+		livePiece = new AbstractPiece(0, 0, grid, ZShape.TEMPLATE) {
+		};
+		listeners = new ArrayList<GameListener>();
+		this.randomizer = randomizer;
 		isOver = false;
+		// create a random piece
+		spawnPiece(randomizer.next());
+		nextPiece = randomizer.next();
+		Metrics.GAMES_STARTED.increment();
 	}
-	
+
 	/**
+	 * Creates a Tetris game
 	 * 
-	 * @param pieceNum - random integer between 1 and 7
-	 * @return new piece that corresponds to the number
+	 * @param display
+	 *            the listener that displays the game
 	 */
-	public AbstractPiece createPiece(int pieceNum) {
-		switch (pieceNum) {
+	public Game(GameListener display) {
+		this();
+		addListener(display);
+	}
+
+	/**
+	 * Adds a listener notified whenever the state of the game has changed
+	 */
+	public void addListener(GameListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addListener
+	 */
+	public void removeListener(GameListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Writes the state of the game: STATE_SIZE bytes with the grid
+	 * (Grid.writeTo), the current piece (number, rotation, row and column),
+	 * the next piece, whether the game is over, the lines cleared and the
+	 * state of the randomizer
+	 * 
+	 * @param out
+	 *            receives the state
+	 */
+	public void writeState(ByteBuffer out) {
+		grid.writeTo(out);
+		if (piece == null) {
+			out.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0);
+		} else {
+			out.put((byte) piece.getTemplate().getId());
+			out.put((byte) piece.getRotation());
+			out.put((byte) piece.getRow());
+			out.put((byte) piece.getCol());
+		}
+		out.put((byte) nextPiece);
+		out.put((byte) (isOver ? 1 : 0));
+		out.putInt(linesCleared);
+		randomizer.save(out);
+	}
+
+	/**
+	 * Puts the game in a state written by writeState. The randomizer must be
+	 * of the same kind as the one of the saved game. The current piece is
+	 * reset as a new piece, so that policies see a new piece to plan.
+	 * 
+	 * @param in
+	 *            holds the state
+	 */
+	public void readState(ByteBuffer in) {
+		grid.readFrom(in);
+		int id = in.get();
+		int rotation = in.get(), row = in.get(), col = in.get();
+		if (id == 0) {
+			piece = null;
+		} else {
+			createPiece(id).moveTo(rotation, row, col);
+		}
+		nextPiece = in.get();
+		isOver = in.get() != 0;
+		linesCleared = in.getInt();
+		lastClear = LineClearResult.NONE;
+		randomizer.restore(in);
+		notifyListeners();
+	}
 
-		case 1:
-			piece = new ZShape(0, Grid.WIDTH / 2 - 1, grid);
-			break;
+	/**
+	 * Returns a snapshot of the game: STATE_SIZE bytes, see writeState. The
+	 * game can be put back in this state with restore, e.g. to undo moves or
+	 * resume a saved game.
+	 */
+	public byte[] snapshot() {
+		byte[] snapshot = new byte[STATE_SIZE];
+		snapshot(snapshot);
+		return snapshot;
+	}
 
-		case 2:
-			piece = new SquareShape(0, Grid.WIDTH / 2, grid);
-			break;
+	/**
+	 * Writes a snapshot of the game in the given array, without allocating
+	 * one
+	 * 
+	 * @param snapshot
+	 *            receives the snapshot, at least STATE_SIZE bytes
+	 */
+	public void snapshot(byte[] snapshot) {
+		writeState(ByteBuffer.wrap(snapshot));
+	}
+
+	/**
+	 * Puts the game back in the state of a snapshot. The randomizer must be
+	 * of the same kind as the one of the game of the snapshot.
+	 * 
+	 * @param snapshot
+	 *            a snapshot made by snapshot()
+	 */
+	public void restore(byte[] snapshot) {
+		readState(ByteBuffer.wrap(snapshot));
+	}
 
-		case 3:
-			piece = new JShape(1, Grid.WIDTH / 2, grid);
-			break;
+	/**
+	 * Records every step and tick of the game from now on. Set it before the
+	 * first move: a replay starts from a new game.
+	 * 
+	 * @param recorder
+	 *            the replay log, or null to stop recording
+	 */
+	public void setRecorder(ReplayRecorder recorder) {
+		this.recorder = recorder;
+	}
 
-		case 4:
-			piece = new TShape(0, Grid.WIDTH / 2 - 1, grid);
-			break;
+	/**
+	 * Publishes the events of the game on the given bus from now on. The
+	 * game must then be played on a single thread at a time, the producer of
+	 * the bus.
+	 * 
+	 * @param events
+	 *            the bus, or null for none
+	 */
+	public void setEventBus(EventBus events) {
+		this.events = events;
+	}
 
-		case 5:
-			piece = new SShape(0, Grid.WIDTH / 2, grid);
-			break;
+	/**
+	 * Returns the randomizer choosing the pieces of this game
+	 */
+	public PieceRandomizer getRandomizer() {
+		return randomizer;
+	}
 
-		case 6:
-			piece = new BarShape(0, Grid.WIDTH / 2 - 1, grid);
-			break;
+	/**
+	 * Returns the piece created after the current one, between 1 and 7
+	 */
+	public int getNextPiece() {
+		return nextPiece;
+	}
 
-		case 7:
-			piece = new LShape(1, Grid.WIDTH / 2 - 1, grid);
-			break;
+	/**
+	 * Returns the grid of this game
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Returns the piece that is dropping, or null if the last piece has just
+	 * been locked in the grid
+	 */
+	public AbstractPiece getPiece() {
+		return piece;
+	}
+
+	/**
+	 * Returns the rows removed when the last piece was locked in the grid
+	 */
+	public LineClearResult getLastLineClear() {
+		return lastClear;
+	}
+
+	/**
+	 * Returns the total number of rows removed since the game started
+	 */
+	public int getLinesCleared() {
+		return linesCleared;
+	}
+
+	/**
+	 * Plays one action: rotates the piece for ROTATE, moves it in the given
+	 * direction otherwise
+	 * 
+	 * @param action
+	 *            the action to play
+	 */
+	public void step(Direction action) {
+		if (recorder != null) {
+			recorder.record(action, this);
 		}
-		
+		if (action == Direction.ROTATE) {
+			rotatePiece();
+		} else {
+			movePiece(action);
+		}
+	}
+
+	/**
+	 * Moves the game forward by one gravity step: the piece moves down one row
+	 */
+	public void tick() {
+		if (recorder != null) {
+			recorder.tick(this);
+		}
+		movePiece(Direction.DOWN);
+	}
+	
+	/**
+	 * Makes the piece of the game a new piece at the top of the grid. The
+	 * game has only one piece, reset to the template of each new piece, so
+	 * nothing is allocated.
+	 * 
+	 * @param pieceNum - random integer between 1 and 7, see PieceRandomizer
+	 * @return the piece of the game, now the piece of that number
+	 */
+	public AbstractPiece createPiece(int pieceNum) {
+		livePiece.reset(ShapeTemplate.forPiece(pieceNum), 0,
+				getSpawnRow(pieceNum), getSpawnCol(pieceNum));
+		piece = livePiece;
 		return piece;
 	}
+
+	/**
+	 * Creates the next piece of the game at the top of the grid, and ends the
+	 * game if the piece overlaps the grid
+	 * 
+	 * @param pieceNum
+	 *            the number of the piece, see createPiece
+	 */
+	private void spawnPiece(int pieceNum) {
+		createPiece(pieceNum);
+		Metrics.pieceSpawned(pieceNum);
+		if (events != null) {
+			publishPiece(GameEvent.Type.PIECE_SPAWNED);
+		}
+		if (FlightEvents.PIECE_SPAWN.isEnabled()) {
+			FlightEvents.PieceSpawn spawn = new FlightEvents.PieceSpawn();
+			if (spawn.shouldCommit()) {
+				spawn.piece = pieceNum;
+				spawn.commit();
+			}
+		}
+
+		// game is over if the piece occupies the same space as some non-empty
+		// part of the grid
+		piece.getLocations(pieceRows, pieceCols);
+		for (int i = 0; i < pieceRows.length; i++) {
+			if (grid.isSet(pieceRows[i], pieceCols[i])) {
+				isOver = true;
+				Metrics.GAMES_OVER.increment();
+				if (events != null) {
+					GameEvent e = events.claim(GameEvent.Type.GAME_OVER);
+					e.linesCleared = linesCleared;
+					events.publish();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the row where a new piece is created
+	 * 
+	 * @param pieceNum - integer between 1 and 7
+	 */
+	public static int getSpawnRow(int pieceNum) {
+		return SPAWN_ROWS[pieceNum - 1];
+	}
+
+	/**
+	 * Returns the column where a new piece is created
+	 * 
+	 * @param pieceNum - integer between 1 and 7
+	 */
+	public static int getSpawnCol(int pieceNum) {
+		return SPAWN_COLS[pieceNum - 1];
+	}
 	
 	/**
 	 * Draws the current state of the game
@@ -96,11 +375,15 @@ public class Game {
 	 */
 	public void movePiece(Direction direction) {
 		if (piece != null) {
+			int row = piece.getRow(), col = piece.getCol();
 			piece.move(direction);
+			if (events != null
+					&& (piece.getRow() != row || piece.getCol() != col)) {
+				publishPiece(GameEvent.Type.PIECE_MOVED);
+			}
 		}
 		updatePiece();
-		display.update();
-		grid.checkRows();
+		notifyListeners();
 	}
 	
 	/**
@@ -108,56 +391,96 @@ public class Game {
 	 */
 	public void rotatePiece() {
 		if (piece != null) {
+			int rotation = piece.getRotation();
 			piece.rotate();
+			if (events != null && piece.getRotation() != rotation) {
+				publishPiece(GameEvent.Type.PIECE_MOVED);
+			}
 		}
 		
 		updatePiece();
-		display.update();
-		grid.checkRows();
+		notifyListeners();
 	}
 	
 	/**
-	 * Returns true if the game is over
+	 * Returns true if the game is over: the last piece created overlapped
+	 * the grid. Changes nothing, so any thread can call it.
 	 */
 	public boolean isGameOver() {
-		// game is over if the piece occupies the same space as some non-empty
-		// part of the grid. Usually happens when a new piece is made
-		if (piece == null) {
-			return false;
-		}
+		return isOver;
+	}
 
-		// check if game is already over
-		if (isOver) {
-			return true;
-		}
+	/**
+	 * Publishes an event of the given type with the piece and its position
+	 */
+	private void publishPiece(GameEvent.Type type) {
+		GameEvent e = events.claim(type);
+		e.piece = piece.getTemplate().getId();
+		e.rotation = piece.getRotation();
+		e.row = piece.getRow();
+		e.col = piece.getCol();
+		events.publish();
+	}
 
-		// check every part of the piece
-		Point[] p = piece.getLocations();
-		for (int i = 0; i < p.length; i++) {
-			if (grid.isSet((int) p[i].getX(), (int) p[i].getY())) {
-				isOver = true;
-				return true;
-			}
+	/** Tells every listener that the state of the game has changed */
+	private void notifyListeners() {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).update();
 		}
-		return false;
 	}
 
 	/** Updates the piece */
 	private void updatePiece() {
 		if (piece == null) {
 			// create new piece after the last one is locked in the grid
-			createPiece(rand.nextInt(7) + 1);
+			spawnPiece(nextPiece);
+			nextPiece = randomizer.next();
 		}
 
 		// set Grid positions corresponding to frozen piece
 		// and then release the piece
 		else if (!piece.canMove(Direction.DOWN)) {
-			Point[] p = piece.getLocations();
-			Color c = piece.getColor();
-			for (int i = 0; i < p.length; i++) {
-				grid.set((int) p[i].getX(), (int) p[i].getY(), c);
+			piece.getLocations(pieceRows, pieceCols);
+			byte c = piece.getColorIndex();
+			int top = Grid.HEIGHT, bottom = 0;
+			for (int i = 0; i < pieceRows.length; i++) {
+				grid.set(pieceRows[i], pieceCols[i], c);
+				top = Math.min(top, pieceRows[i]);
+				bottom = Math.max(bottom, pieceRows[i]);
+			}
+			if (FlightEvents.PIECE_LOCK.isEnabled()) {
+				FlightEvents.PieceLock lock = new FlightEvents.PieceLock();
+				if (lock.shouldCommit()) {
+					lock.piece = piece.getTemplate().getId();
+					lock.top = top;
+					lock.commit();
+				}
+			}
+			if (events != null) {
+				publishPiece(GameEvent.Type.PIECE_LOCKED);
 			}
 			piece = null;
+
+			// only the rows of the locked piece can have become full
+			lastClear = grid.checkRows(top, bottom);
+			linesCleared += lastClear.getCount();
+			if (lastClear.getCount() > 0) {
+				Metrics.LINES_CLEARED.add(lastClear.getCount());
+				if (events != null) {
+					GameEvent e = events.claim(GameEvent.Type.LINES_CLEARED);
+					e.rows = lastClear.getCount();
+					e.linesCleared = linesCleared;
+					events.publish();
+				}
+				if (FlightEvents.LINE_CLEAR.isEnabled()) {
+					FlightEvents.LineClear clear = new FlightEvents.LineClear();
+					if (clear.shouldCommit()) {
+						clear.rows = lastClear.getCount();
+						clear.linesCleared = linesCleared;
+						clear.commit();
+					}
+				}
+			}
 		}
 
 	}
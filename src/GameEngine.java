@@ -0,0 +1,18 @@
+/**
+ * Interface for the game logic of Tetris. A game engine does not depend on
+ * any display: it only moves forward when step or tick is called, and tells
+ * its listeners when its state has changed.
+ * 
+ * @author dtabys
+ *
+ */
+public interface GameEngine {
+	void step(Direction action);
+	void tick();
+	boolean isGameOver();
+	Grid getGrid();
+	AbstractPiece getPiece();
+	int getNextPiece();
+	void addListener(GameListener listener);
+	void removeListener(GameListener listener);
+}
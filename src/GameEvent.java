@@ -0,0 +1,100 @@
+/**
+ * Something that happened in a game, published on an EventBus: a piece
+ * spawned, moved or locked, rows cleared, or the end of the game.
+ * 
+ * The events are not created for each publication: the EventBus keeps a ring
+ * of GameEvent slots and fills the next one, and each subscriber copies an event
+ * into a GameEvent of its own before handing it to its listener. A listener
+ * must copy what it keeps of an event.
+ * 
+ * @author dtabys
+ */
+public class GameEvent {
+
+	/**
+	 * The kinds of events, and the fields each one sets
+	 */
+	public enum Type {
+		PIECE_SPAWNED, // piece, rotation, row, col
+		PIECE_MOVED, // piece, rotation, row, col
+		PIECE_LOCKED, // piece, rotation, row, col
+		LINES_CLEARED, // rows, linesCleared
+		GAME_OVER // linesCleared
+	}
+
+	Type type;
+
+	int piece; // the number of the piece, from 1 to 7
+
+	int rotation; // rotation state and pivot of the piece
+
+	int row;
+
+	int col;
+
+	int rows; // rows removed at once
+
+	int linesCleared; // rows removed in the game so far
+
+	/**
+	 * Returns the kind of the event
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the number of the piece, from 1 to PieceRandomizer.PIECE_TYPES
+	 */
+	public int getPiece() {
+		return piece;
+	}
+
+	/**
+	 * Returns the rotation state of the piece
+	 */
+	public int getRotation() {
+		return rotation;
+	}
+
+	/**
+	 * Returns the row of the pivot of the piece
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Returns the column of the pivot of the piece
+	 */
+	public int getCol() {
+		return col;
+	}
+
+	/**
+	 * Returns the number of rows removed at once, for LINES_CLEARED
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of rows removed in the game so far
+	 */
+	public int getLinesCleared() {
+		return linesCleared;
+	}
+
+	/**
+	 * Makes this event a copy of the given one
+	 */
+	void copyFrom(GameEvent other) {
+		type = other.type;
+		piece = other.piece;
+		rotation = other.rotation;
+		row = other.row;
+		col = other.col;
+		rows = other.rows;
+		linesCleared = other.linesCleared;
+	}
+}
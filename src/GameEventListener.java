@@ -0,0 +1,21 @@
+/**
+ * Listener of the events of a game published on an EventBus, called on the
+ * thread of its subscriber.
+ * 
+ * @author dtabys
+ *
+ */
+public interface GameEventListener {
+	/**
+	 * Called for each event, in the order they were published. The event is
+	 * reused after the call.
+	 */
+	void onEvent(GameEvent event);
+
+	/**
+	 * Called when the subscriber fell behind by more than the capacity of the
+	 * ring: the given number of events were overwritten before being read
+	 */
+	default void onMissed(long count) {
+	}
+}
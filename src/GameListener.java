@@ -0,0 +1,10 @@
+/**
+ * Listener notified by a game whenever its state has changed, e.g. to redraw
+ * the board.
+ * 
+ * @author dtabys
+ *
+ */
+public interface GameListener {
+	void update();
+}
@@ -0,0 +1,155 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed timestep loop running on its own thread. The time elapsed according
+ * to System.nanoTime is accumulated, and a tick is played for every full
+ * period in it, so a late tick is caught up by the next ones. After a long
+ * stall at most MAX_CATCH_UP ticks are played at once.
+ * 
+ * The loop measures its jitter: how late each tick was played compared to
+ * its scheduled time.
+ * 
+ * @author dtabys
+ */
+public class GameLoop implements Runnable {
+
+	// most ticks played in a row to catch up
+	private static final int MAX_CATCH_UP = 5;
+
+	// the last part of a wait is spent spinning, parking is not precise
+	private static final long SPIN_TIME = 200_000L; // in ns
+
+	private Runnable tick; // played every period
+
+	private int tickRate; // ticks per second
+
+	private long period; // in ns
+
+	private Thread thread;
+
+	private volatile boolean running;
+
+	// statistics, written by the loop thread only
+	private volatile long ticks;
+
+	private volatile long jitter; // moving average, in ns
+
+	private volatile long maxJitter; // in ns
+
+	/**
+	 * Creates a loop, call start() to start it
+	 * 
+	 * @param tickRate
+	 *            number of ticks per second
+	 * @param tick
+	 *            played at every tick, on the loop thread
+	 * @throws IllegalArgumentException
+	 *             if tickRate <= 0
+	 */
+	public GameLoop(int tickRate, Runnable tick) {
+		if (tickRate <= 0)
+			throw new IllegalArgumentException("Invalid tick rate = "
+					+ tickRate);
+		this.tickRate = tickRate;
+		this.tick = tick;
+		period = 1_000_000_000L / tickRate;
+	}
+
+	/**
+	 * Starts the loop on a new thread with the given name
+	 */
+	public void start(String name) {
+		running = true;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the loop after the current tick. Can be called from the tick.
+	 */
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Returns the number of ticks per second
+	 */
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	/**
+	 * Returns the number of ticks played so far
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns how late the recent ticks were played on average, in ns
+	 */
+	public long getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Returns the most any tick has been played late, in ns
+	 */
+	public long getMaxJitter() {
+		return maxJitter;
+	}
+
+	/**
+	 * Plays the ticks until the loop is stopped
+	 */
+	public void run() {
+		long previous = System.nanoTime();
+		long accumulator = 0; // time elapsed not played yet
+		while (running) {
+			long now = System.nanoTime();
+			accumulator += now - previous;
+			previous = now;
+
+			// after a long stall, give up on the oldest ticks
+			if (accumulator > MAX_CATCH_UP * period) {
+				accumulator = MAX_CATCH_UP * period;
+			}
+
+			while (accumulator >= period && running) {
+				accumulator -= period;
+				recordJitter(accumulator);
+				tick.run();
+				ticks++;
+			}
+
+			waitFor(previous + period - accumulator);
+		}
+	}
+
+	/**
+	 * Adds how late a tick was played to the statistics
+	 */
+	private void recordJitter(long late) {
+		jitter += (late - jitter) / 16;
+		if (late > maxJitter) {
+			maxJitter = late;
+		}
+	}
+
+	/**
+	 * Waits until System.nanoTime() reaches the deadline
+	 */
+	private void waitFor(long deadline) {
+		long remaining = deadline - System.nanoTime();
+		if (remaining > SPIN_TIME) {
+			LockSupport.parkNanos(this, remaining - SPIN_TIME);
+		}
+		while (running && System.nanoTime() - deadline < 0) {
+			Thread.onSpinWait();
+		}
+	}
+}
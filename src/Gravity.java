@@ -0,0 +1,87 @@
+/**
+ * How fast the piece falls, in cells per frame of the game loop. The speed is
+ * the fraction cells / frames, e.g. 1 cell every 48 frames, or 20 cells every
+ * frame (20G: the piece reaches the bottom as soon as it appears). The
+ * fraction is kept exact so that the same frames always give the same moves.
+ * 
+ * @author dtabys
+ */
+public class Gravity {
+
+	private int cells; // cells moved every frames frames
+
+	private int frames;
+
+	// cells due but not moved yet, in 1/frames of a cell
+	private int accumulated;
+
+	/**
+	 * Creates a gravity of cells / frames cells per frame
+	 * 
+	 * @param cells
+	 *            cells the piece moves down ...
+	 * @param frames
+	 *            ... every frames frames
+	 * @throws IllegalArgumentException
+	 *             if cells < 0 or frames <= 0
+	 */
+	public Gravity(int cells, int frames) {
+		if (cells < 0 || frames <= 0)
+			throw new IllegalArgumentException("Invalid gravity = " + cells
+					+ "/" + frames);
+		this.cells = cells;
+		this.frames = frames;
+	}
+
+	/**
+	 * Returns a new gravity where a piece falls through the whole grid in one
+	 * frame. A new one every time, as a gravity keeps the fraction of a cell
+	 * due of its game.
+	 */
+	public static Gravity twentyG() {
+		return new Gravity(Grid.HEIGHT, 1);
+	}
+
+	/**
+	 * Returns a gravity where the piece moves down one cell every period
+	 * seconds
+	 * 
+	 * @param period
+	 *            time in seconds between two moves down
+	 * @param tickRate
+	 *            frames per second of the game loop
+	 */
+	public static Gravity fromPeriod(double period, int tickRate) {
+		return new Gravity(1, Math.max(1, (int) Math.round(period * tickRate)));
+	}
+
+	/**
+	 * Advances by one frame and returns the number of cells the piece must
+	 * move down during this frame
+	 */
+	public int advance() {
+		accumulated += cells;
+		int due = accumulated / frames;
+		accumulated -= due * frames;
+		return due;
+	}
+
+	/**
+	 * Moves the piece of the game down by the given number of cells, one
+	 * game tick per cell. Stops early when the piece is locked: the next piece
+	 * only starts to fall on the next frame.
+	 * 
+	 * @param game
+	 *            the game
+	 * @param cells
+	 *            number of cells to move down
+	 */
+	public static void fall(GameEngine game, int cells) {
+		for (int i = 0; i < cells && !game.isGameOver(); i++) {
+			game.tick();
+			if (game.getPiece() == null) {
+				break;
+			}
+		}
+	}
+}
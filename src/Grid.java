@@ -1,10 +1,15 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 /**
  * This is the Tetris board represented by a (HEIGHT - by - WIDTH) matrix of
- * Squares.
+ * Squares. Each row of the matrix is stored as a bitmask of its occupied
+ * columns, next to a plane holding the Palette index of the color of every
+ * square. Colors are only looked up in the Palette to draw the grid.
  * 
  * The upper left Square is at (0,0). The lower right Square is at (HEIGHT -1,
  * WIDTH -1).
@@ -16,16 +21,45 @@ import java.util.ArrayList;
  * spot is occupied (i.e. a piece cannot move over/to an occupied square). A
  * grid will also remove completely full rows.
  * 
+ * The grid keeps a 64 bit Zobrist hash of its occupied squares: the XOR of a
+ * fixed random key per occupied square, updated as squares are set and rows
+ * removed. Grids with the same occupied squares have the same hash, whatever
+ * their colors.
+ * 
  * @author CSC 143
  */
 public class Grid {
-	private Square[][] board;
+	// each row is stored as a bitmask of its occupied columns: bit c is set
+	// when (row, c) is occupied
+	private int[] rows;
+
+	// the Palette index of the color of every square, stored row by row
+	// (index row * WIDTH + col)
+	private byte[] colors;
+
+	// incremented whenever a square of the grid changes
+	private int modCount;
+
+	// image of the grid as last drawn, redrawn when modCount changes
+	private BufferedImage image;
+
+	private int imageModCount;
+
+	// height of each column: the number of rows between the bottom of the
+	// grid and the top of its highest occupied square (0 if the column is
+	// empty)
+	private int[] heights;
+
+	private long hash; // Zobrist hash of the occupied squares
 
 	// Width and Height of Grid in number of squares
 	public static final int HEIGHT = 20;
 
 	public static final int WIDTH = 10;
 
+	// the bitmask of a row where every column is occupied
+	public static final int FULL_ROW = (1 << WIDTH) - 1;
+
 	private static final int BORDER = 5;
 
 	public static final int LEFT = 100; // pixel position of left of grid
@@ -34,19 +68,133 @@ public class Grid {
 
 	public static final Color EMPTY = Color.WHITE;
 
+	// bytes written by writeTo: one bit per square, then the Palette index
+	// of every square
+	public static final int SNAPSHOT_SIZE = HEIGHT * WIDTH / 8 + HEIGHT
+			* WIDTH * Palette.BITS / 8;
+
+	// the Zobrist key of each square (index row * WIDTH + col), the same in
+	// every run
+	private static final long[] KEYS = new long[HEIGHT * WIDTH];
+
+	static {
+		SplittableRandom random = new SplittableRandom(0x7E7215L);
+		for (int i = 0; i < KEYS.length; i++) {
+			KEYS[i] = random.nextLong();
+		}
+	}
+
 	/**
 	 * Creates the grid
 	 */
 	public Grid() {
-		board = new Square[HEIGHT][WIDTH];
+		rows = new int[HEIGHT];
+		colors = new byte[HEIGHT * WIDTH]; // every square starts empty
+		heights = new int[WIDTH];
+	}
 
-		// put squares in the board
+	/**
+	 * Makes this grid a copy of the given grid
+	 * 
+	 * @param other
+	 *            the grid to copy
+	 */
+	public void copyFrom(Grid other) {
+		System.arraycopy(other.rows, 0, rows, 0, HEIGHT);
+		System.arraycopy(other.colors, 0, colors, 0, HEIGHT * WIDTH);
+		System.arraycopy(other.heights, 0, heights, 0, WIDTH);
+		hash = other.hash;
+		modCount++;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the occupied squares of the grid
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the given occupied columns in the given row
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 * @param mask
+	 *            the occupied columns, bit c for column c
+	 */
+	public static long hashRow(int row, int mask) {
+		long h = 0;
+		while (mask != 0) {
+			h ^= KEYS[row * WIDTH + Integer.numberOfTrailingZeros(mask)];
+			mask &= mask - 1;
+		}
+		return h;
+	}
+
+	/**
+	 * Writes a compact snapshot of the grid: SNAPSHOT_SIZE bytes, the occupied
+	 * squares then the Palette index of the color of each square, packed
+	 * row by row.
+	 * 
+	 * @param out
+	 *            receives the snapshot
+	 */
+	public void writeTo(ByteBuffer out) {
+		long bits = 0;
+		int count = 0;
 		for (int row = 0; row < HEIGHT; row++) {
-			for (int col = 0; col < WIDTH; col++) {
-				board[row][col] = new Square(this, row, col, EMPTY, false);
+			bits |= (long) rows[row] << count;
+			count += WIDTH;
+			for (; count >= 8; count -= 8, bits >>>= 8) {
+				out.put((byte) bits);
+			}
+		}
+		for (int i = 0; i < HEIGHT * WIDTH; i++) {
+			bits |= (long) colors[i] << count;
+			count += Palette.BITS;
+			for (; count >= 8; count -= 8, bits >>>= 8) {
+				out.put((byte) bits);
 			}
 		}
+	}
 
+	/**
+	 * Makes this grid the grid of a snapshot written by writeTo
+	 * 
+	 * @param in
+	 *            holds the snapshot
+	 */
+	public void readFrom(ByteBuffer in) {
+		long bits = 0;
+		int count = 0;
+		hash = 0;
+		for (int row = 0; row < HEIGHT; row++) {
+			for (; count < WIDTH; count += 8) {
+				bits |= (long) (in.get() & 0xFF) << count;
+			}
+			rows[row] = (int) bits & FULL_ROW;
+			hash ^= hashRow(row, rows[row]);
+			bits >>>= WIDTH;
+			count -= WIDTH;
+		}
+		for (int i = 0; i < HEIGHT * WIDTH; i++) {
+			for (; count < Palette.BITS; count += 8) {
+				bits |= (long) (in.get() & 0xFF) << count;
+			}
+			colors[i] = (byte) (bits & (Palette.SIZE - 1));
+			bits >>>= Palette.BITS;
+			count -= Palette.BITS;
+		}
+		updateHeights();
+		modCount++;
+	}
+
+	/**
+	 * Returns a counter that changes whenever a square of the grid changes,
+	 * i.e. the grid needs to be drawn again
+	 */
+	public int getModCount() {
+		return modCount;
 	}
 
 	/**
@@ -56,9 +204,49 @@ public class Grid {
 	 *            the row in the grid
 	 * @param col
 	 *            the column in the grid
+	 * @throws IndexOutOfBoundsException
+	 *             if row < 0 || row>= HEIGHT || col < 0 || col >= WIDTH
 	 */
 	public boolean isSet(int row, int col) {
-		return !board[row][col].getColor().equals(EMPTY);
+		if (col < 0 || col >= WIDTH)
+			throw new IndexOutOfBoundsException("Invalid column = " + col);
+		return (rows[row] & (1 << col)) != 0;
+	}
+
+	/**
+	 * Returns the bitmask of the occupied columns of the given row. Bit c is
+	 * set if (row, c) is occupied.
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 */
+	public int getRow(int row) {
+		return rows[row];
+	}
+
+	/**
+	 * Returns the color of the Square at the given location
+	 * 
+	 * @param row
+	 *            the row of the Square in the Grid
+	 * @param col
+	 *            the column of the Square in the Grid
+	 */
+	public Color getColor(int row, int col) {
+		return Palette.getColor(colors[row * WIDTH + col]);
+	}
+
+	/**
+	 * Returns the Palette index of the color of the Square at the given
+	 * location
+	 * 
+	 * @param row
+	 *            the row of the Square in the Grid
+	 * @param col
+	 *            the column of the Square in the Grid
+	 */
+	public byte getColorIndex(int row, int col) {
+		return colors[row * WIDTH + col];
 	}
 
 	/**
@@ -69,12 +257,151 @@ public class Grid {
 	 * @param col
 	 *            the column of the Square in the Grid
 	 * @param c
-	 *            the color to set the Square
+	 *            the color to set the Square, in the Palette
 	 * @throws IndexOutOfBoundsException
 	 *             if row < 0 || row>= HEIGHT || col < 0 || col >= WIDTH
+	 * @throws IllegalArgumentException
+	 *             if the color is not in the Palette
 	 */
 	public void set(int row, int col, Color c) {
-		board[row][col].setColor(c);
+		set(row, col, (byte) Palette.indexOf(c));
+	}
+
+	/**
+	 * Changes the color of the Square at the given location to the color of
+	 * the given Palette index
+	 * 
+	 * @param row
+	 *            the row of the Square in the Grid
+	 * @param col
+	 *            the column of the Square in the Grid
+	 * @param c
+	 *            the Palette index of the color, Palette.EMPTY to empty the
+	 *            Square
+	 * @throws IndexOutOfBoundsException
+	 *             if row < 0 || row>= HEIGHT || col < 0 || col >= WIDTH
+	 */
+	public void set(int row, int col, byte c) {
+		if (col < 0 || col >= WIDTH)
+			throw new IndexOutOfBoundsException("Invalid column = " + col);
+		boolean wasSet = (rows[row] & (1 << col)) != 0;
+		if (c == Palette.EMPTY) {
+			if (wasSet) {
+				hash ^= KEYS[row * WIDTH + col];
+			}
+			rows[row] &= ~(1 << col);
+
+			// if the top of the column was removed, look for the new top
+			if (heights[col] == HEIGHT - row) {
+				int r = row + 1;
+				while (r < HEIGHT && (rows[r] & (1 << col)) == 0) {
+					r++;
+				}
+				heights[col] = HEIGHT - r;
+			}
+		} else {
+			if (!wasSet) {
+				hash ^= KEYS[row * WIDTH + col];
+			}
+			rows[row] |= 1 << col;
+			heights[col] = Math.max(heights[col], HEIGHT - row);
+		}
+		colors[row * WIDTH + col] = c;
+		modCount++;
+	}
+
+	/**
+	 * Returns the height of the given column: the number of rows between the
+	 * bottom of the grid and the top of the highest occupied square of that
+	 * column, 0 if the column is empty
+	 * 
+	 * @param col
+	 *            the column in the grid
+	 */
+	public int getColumnHeight(int col) {
+		return heights[col];
+	}
+
+	/**
+	 * Returns how many rows a square at (row, col) can move down before it
+	 * lands on an occupied square or the bottom of the grid. This takes
+	 * constant time when the square is above the highest occupied square of
+	 * its column; a square below an overhang looks for the first occupied
+	 * square under it.
+	 * 
+	 * @param row
+	 *            the row of the square
+	 * @param col
+	 *            the column of the square
+	 */
+	public int dropDistance(int row, int col) {
+		int surface = HEIGHT - heights[col]; // first row that is not empty
+		if (row < surface) {
+			return surface - 1 - row;
+		}
+		int r = row + 1;
+		while (r < HEIGHT && (rows[r] & (1 << col)) == 0) {
+			r++;
+		}
+		return r - 1 - row;
+	}
+
+	/**
+	 * Returns true if a shape given as row bitmasks can be placed with its
+	 * first row at the given grid row without overlapping any occupied square
+	 * or leaving the bottom of the grid. The masks must already be shifted to
+	 * their columns; a mask with bits outside of FULL_ROW never fits.
+	 * 
+	 * @param row
+	 *            the grid row of masks[0]
+	 * @param masks
+	 *            the occupied columns of each row of the shape
+	 */
+	public boolean fits(int row, int[] masks) {
+		for (int i = 0; i < masks.length; i++) {
+			int mask = masks[i];
+			if (mask == 0)
+				continue;
+			int r = row + i;
+			if (r < 0 || r >= HEIGHT || (mask & ~FULL_ROW) != 0
+					|| (rows[r] & mask) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a shape given as row bitmasks can be placed with its
+	 * first row at the given grid row and bit 0 of its masks at the given
+	 * column, without overlapping any occupied square or leaving the grid.
+	 * 
+	 * @param row
+	 *            the grid row of masks[0]
+	 * @param col
+	 *            the grid column of bit 0 of the masks
+	 * @param masks
+	 *            the occupied columns of each row of the shape
+	 */
+	public boolean fits(int row, int col, int[] masks) {
+		if (col >= WIDTH || col <= -32)
+			return false;
+		for (int i = 0; i < masks.length; i++) {
+			int mask = masks[i];
+			if (col >= 0) {
+				mask <<= col;
+			} else if ((mask & ((1 << -col) - 1)) != 0) {
+				return false; // squares left of the grid
+			} else {
+				mask >>>= -col;
+			}
+			if (mask == 0)
+				continue;
+			int r = row + i;
+			if (r < 0 || r >= HEIGHT || (mask & ~FULL_ROW) != 0
+					|| (rows[r] & mask) != 0)
+				return false;
+		}
+		return true;
 	}
 
 	/**
@@ -82,61 +409,135 @@ public class Grid {
 	 * 
 	 * If a solid row is found and removed, all rows above it are moved down and
 	 * the top row set to empty
+	 * 
+	 * @return the removed rows
 	 */
-	public void checkRows() {
-		
-		// run a for loop starting from top left corner
-		for (int row = 0; row < HEIGHT; row ++) {
-			
-			// variable to keep track of number of locked columns in a row
-			int colLockedCount = 0; 
-			
-			for (int col = 0; col < WIDTH; col ++) {
-				
-				// if the square is locked then increase colLockedCount
-				if (isSet(row, col)){
-					colLockedCount ++;
-				}
-				
+	public LineClearResult checkRows() {
+		return checkRows(0, HEIGHT - 1);
+	}
+
+	/**
+	 * Checks for and remove the solid rows between top and bottom, e.g. the
+	 * rows of a piece that was just locked in the grid. Other rows are not
+	 * checked.
+	 * 
+	 * All the removed rows are compacted in a single pass: every remaining
+	 * row above bottom is moved down once, directly to its final place.
+	 * 
+	 * @param top
+	 *            the first row to check
+	 * @param bottom
+	 *            the last row to check
+	 * @return the removed rows
+	 */
+	public LineClearResult checkRows(int top, int bottom) {
+		top = Math.max(top, 0);
+		bottom = Math.min(bottom, HEIGHT - 1);
+
+		// find the full rows
+		int count = 0;
+		for (int row = top; row <= bottom; row++) {
+			if (rows[row] == FULL_ROW) {
+				count++;
 			}
-			
-			// if colLockedCount is equal to the width, that means the that row is full
-			if (colLockedCount == WIDTH) {
-				
-				// run a for loop to make the full row empty
-				for (int emptyCol = 0; emptyCol < WIDTH; emptyCol ++) {
-					int emptyRow = row;
-					board[emptyRow][emptyCol].setColor(EMPTY);
-				}
-				
-				// run a for loop starting one row above from the row that was removed
-				for (int moveRow = row - 1; moveRow >= 0; moveRow --) {
-					
-					for (int moveCol = WIDTH - 1; moveCol >= 0; moveCol --) {
-						
-						// if the square is occupied, move one row down
-						if (isSet(moveRow, moveCol)) {
-							board[moveRow + 1][moveCol].setColor(board[moveRow][moveCol].getColor());
-							board[moveRow][moveCol].setColor(EMPTY);
-						}
-						
-					}
-					
-				}
-				
+		}
+		if (count == 0) {
+			return LineClearResult.NONE;
+		}
+
+		int[] removed = new int[count];
+		int n = 0;
+		for (int row = top; row <= bottom; row++) {
+			if (rows[row] == FULL_ROW) {
+				removed[n++] = row;
+			}
+		}
+
+		// rows above the highest square are empty and don't need to move
+		int highest = 0;
+		for (int col = 0; col < WIDTH; col++) {
+			highest = Math.max(highest, heights[col]);
+		}
+		int stackTop = HEIGHT - highest;
+
+		// the rows from stackTop to bottom change: take them out of the hash
+		// now and put them back once they have moved
+		for (int row = stackTop; row <= bottom; row++) {
+			hash ^= hashRow(row, rows[row]);
+		}
+
+		// move every row that is not full down to the next free row, starting
+		// from the bottom
+		int to = bottom;
+		for (int from = bottom; from >= stackTop; from--) {
+			if (from >= top && rows[from] == FULL_ROW) {
+				continue;
+			}
+			if (to != from) {
+				rows[to] = rows[from];
+				System.arraycopy(colors, from * WIDTH, colors, to * WIDTH,
+						WIDTH);
 			}
-			
-			// reset the locked column count
-			colLockedCount = 0;
-			
+			to--;
 		}
-		
+
+		// the rows left at the top of the stack are now empty
+		for (int row = stackTop; row <= to; row++) {
+			rows[row] = 0;
+		}
+		Arrays.fill(colors, stackTop * WIDTH, (to + 1) * WIDTH, Palette.EMPTY);
+		for (int row = to + 1; row <= bottom; row++) {
+			hash ^= hashRow(row, rows[row]);
+		}
+
+		updateHeights();
+		modCount++;
+		return new LineClearResult(removed);
 	}
 
 	/**
-	 * Draws the grid on the given Graphics context
+	 * Recomputes the height of every column from the rows, top to bottom. A
+	 * column gets its height from the first row where it is occupied.
+	 */
+	private void updateHeights() {
+		Arrays.fill(heights, 0);
+		int seen = 0; // columns whose height is known
+		for (int row = 0; row < HEIGHT && seen != FULL_ROW; row++) {
+			int found = rows[row] & ~seen;
+			while (found != 0) {
+				int col = Integer.numberOfTrailingZeros(found);
+				heights[col] = HEIGHT - row;
+				found &= found - 1;
+			}
+			seen |= rows[row];
+		}
+	}
+
+	/**
+	 * Draws the grid on the given Graphics context. The grid is kept in an
+	 * image that is only redrawn after the grid has changed.
 	 */
 	public void draw(Graphics g) {
+		if (image == null || imageModCount != modCount) {
+			if (image == null) {
+				image = new BufferedImage(WIDTH * Square.WIDTH + 2 * BORDER,
+						HEIGHT * Square.HEIGHT + BORDER,
+						BufferedImage.TYPE_INT_RGB);
+			}
+			Graphics ig = image.getGraphics();
+			// the image starts at the top of the left edge
+			ig.translate(BORDER - LEFT, -TOP);
+			drawGrid(ig);
+			ig.dispose();
+			imageModCount = modCount;
+		}
+		g.drawImage(image, LEFT - BORDER, TOP, null);
+	}
+
+	/**
+	 * Draws the edges and all the squares of the grid
+	 */
+	private void drawGrid(Graphics g) {
 
 		// draw the edges as rectangles: left, right in blue then bottom in red
 		g.setColor(Color.BLUE);
@@ -148,20 +549,16 @@ public class Grid {
 				* Square.WIDTH + 2 * BORDER, BORDER);
 
 		// draw all the squares in the grid
-		// empty ones first (to avoid masking the black lines of the pieces that
-		// have already fallen)
+		// empty ones first, all at once (to avoid masking the black lines of
+		// the pieces that have already fallen)
+		g.setColor(EMPTY);
+		g.fillRect(LEFT, TOP, WIDTH * Square.WIDTH, HEIGHT * Square.HEIGHT);
 		for (int r = 0; r < HEIGHT; r++) {
-			for (int c = 0; c < WIDTH; c++) {
-				if (board[r][c].getColor().equals(EMPTY)) {
-					board[r][c].draw(g);
-				}
-			}
-		}
-		for (int r = 0; r < HEIGHT; r++) {
-			for (int c = 0; c < WIDTH; c++) {
-				if (!board[r][c].getColor().equals(EMPTY)) {
-					board[r][c].draw(g);
-				}
+			int mask = rows[r];
+			while (mask != 0) {
+				int c = Integer.numberOfTrailingZeros(mask);
+				Square.draw(g, r, c, colors[r * WIDTH + c]);
+				mask &= mask - 1;
 			}
 		}
 	}
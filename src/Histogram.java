@@ -0,0 +1,108 @@
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, exported in the Prometheus
+ * text format by Metrics. Each bucket, the count and the sum are LongAdders:
+ * an observation from the game loop only touches a cell of its own thread,
+ * and a scrape only reads them.
+ * 
+ * @author dtabys
+ */
+public class Histogram {
+
+	// upper bounds of the buckets, in ns: 0.1 ms to 100 ms, then +Inf
+	private static final long[] BOUNDS = { 100_000L, 250_000L, 500_000L,
+			1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L,
+			50_000_000L, 100_000_000L };
+
+	// the le label of each bucket, in seconds, e.g. "0.0001"
+	private static final String[] LABELS = new String[BOUNDS.length];
+
+	static {
+		for (int i = 0; i < BOUNDS.length; i++) {
+			LABELS[i] = seconds(BOUNDS[i]);
+		}
+	}
+
+	private LongAdder[] buckets; // observations in each bucket, not cumulative
+
+	private LongAdder sum = new LongAdder(); // in ns
+
+	/**
+	 * Creates an empty histogram
+	 */
+	public Histogram() {
+		buckets = new LongAdder[BOUNDS.length + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Adds a duration to the histogram
+	 * 
+	 * @param nanos
+	 *            the duration, in ns
+	 */
+	public void observe(long nanos) {
+		int i = 0;
+		while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+			i++;
+		}
+		buckets[i].increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Returns the number of durations observed
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the histogram in the Prometheus text format: the cumulative
+	 * buckets, the sum in seconds and the count
+	 * 
+	 * @param out
+	 *            receives the text
+	 * @param name
+	 *            the name of the metric
+	 * @param help
+	 *            the description of the metric
+	 */
+	public void write(StringBuilder out, String name, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help)
+				.append('\n');
+		out.append("# TYPE ").append(name).append(" histogram\n");
+		long count = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			count += buckets[i].sum();
+			out.append(name).append("_bucket{le=\"");
+			if (i < BOUNDS.length) {
+				out.append(LABELS[i]);
+			} else {
+				out.append("+Inf");
+			}
+			out.append("\"} ").append(count).append('\n');
+		}
+		out.append(name).append("_sum ").append(seconds(sum.sum()))
+				.append('\n');
+		out.append(name).append("_count ").append(count).append('\n');
+	}
+
+	/**
+	 * Returns a duration in ns as seconds in plain decimals, never in the
+	 * scientific notation of a double
+	 */
+	private static String seconds(long nanos) {
+		BigDecimal s = BigDecimal.valueOf(nanos, 9).stripTrailingZeros();
+		return s.scale() < 0 ? s.setScale(0).toPlainString() : s
+				.toPlainString();
+	}
+}
@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses the pieces while avoiding the recent ones: a piece is drawn at
+ * random, and drawn again (up to ROLLS times) while it is one of the last
+ * HISTORY pieces. The history starts with Z and S pieces so that the game
+ * rarely starts with one of them.
+ * 
+ * @author dtabys
+ */
+public class HistoryRandomizer implements PieceRandomizer {
+
+	private static final int HISTORY = 4; // number of pieces remembered
+
+	private static final int ROLLS = 4; // most draws of one piece
+
+	private long seed;
+
+	private SeededRandom rand;
+
+	private int[] history; // the last pieces, oldest first
+
+	/**
+	 * Creates a randomizer
+	 * 
+	 * @param seed
+	 *            the seed of the random numbers
+	 */
+	public HistoryRandomizer(long seed) {
+		this.seed = seed;
+		rand = new SeededRandom(seed);
+		// Z, Z, S, S (see Game.createPiece)
+		history = new int[] { 1, 1, 5, 5 };
+	}
+
+	/**
+	 * Returns the next piece, between 1 and PIECE_TYPES
+	 */
+	public int next() {
+		int piece = 0;
+		for (int roll = 0; roll < ROLLS; roll++) {
+			piece = rand.nextInt(PIECE_TYPES) + 1;
+			if (!inHistory(piece)) {
+				break;
+			}
+		}
+
+		// forget the oldest piece
+		System.arraycopy(history, 1, history, 0, HISTORY - 1);
+		history[HISTORY - 1] = piece;
+		return piece;
+	}
+
+	/**
+	 * Returns the seed of this randomizer
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the name of this kind of randomizer
+	 */
+	public String getName() {
+		return "history";
+	}
+
+	/** Returns true if the piece is one of the last pieces */
+	private boolean inHistory(int piece) {
+		for (int i = 0; i < HISTORY; i++) {
+			if (history[i] == piece) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the state of this randomizer: STATE_SIZE bytes
+	 * 
+	 * @param out
+	 *            receives the state
+	 */
+	public void save(ByteBuffer out) {
+		out.putLong(rand.getState());
+		for (int i = 0; i < HISTORY; i++) {
+			out.put((byte) history[i]);
+		}
+		out.putInt(0); // unused
+	}
+
+	/**
+	 * Sets the state of this randomizer to a state written by save
+	 * 
+	 * @param in
+	 *            holds the state, STATE_SIZE bytes
+	 */
+	public void restore(ByteBuffer in) {
+		rand.setState(in.getLong());
+		for (int i = 0; i < HISTORY; i++) {
+			history[i] = in.get();
+		}
+		in.getInt();
+	}
+}
@@ -0,0 +1,277 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The keys of the player, played by the game loop at the start of each tick
+ * instead of when the key events arrive. Key presses and releases are queued
+ * with their time by the Swing thread, and the thread running the game plays
+ * them at the next tick, so the moves only depend on the ticks the keys are
+ * held, not on the key repeat of the system or the load of the Swing thread.
+ * 
+ * A press of LEFT or RIGHT moves the piece at once. Held longer than the
+ * auto-shift delay, the piece moves again every rate ticks (delayed auto
+ * shift and auto repeat rate), or slides to the wall at once with a rate of
+ * 0. The last of LEFT and RIGHT pressed wins. ROTATE and DROP play once per
+ * press. SOFT_DROP moves the piece down one cell at once and then every
+ * soft drop period ticks while held.
+ * 
+ * A press of a key already held is a repeat of the system and is ignored. A
+ * system that repeats a key with a release and a press (e.g. X11) sends them
+ * together: a release is kept until the next tick if it is younger than
+ * REPEAT_GAP, and a release followed by a press of the same key within
+ * REPEAT_GAP is dropped with the press.
+ * 
+ * @author dtabys
+ */
+public class InputQueue {
+
+	/**
+	 * The keys of the player
+	 */
+	public enum Control {
+		LEFT, RIGHT, ROTATE, DROP, SOFT_DROP
+	}
+
+	// in ticks of the game loop, 1/60 s
+	public static final int DEFAULT_DELAY = 10;
+
+	public static final int DEFAULT_RATE = 2;
+
+	public static final int DEFAULT_SOFT_DROP = 1;
+
+	// longest time between the release and the press of a system repeat
+	public static final long REPEAT_GAP = 5_000_000L; // in ns
+
+	/**
+	 * A key pressed or released at some time
+	 */
+	private static class Input {
+		final Control control;
+
+		final boolean pressed;
+
+		final long time; // System.nanoTime()
+
+		Input(Control control, boolean pressed, long time) {
+			this.control = control;
+			this.pressed = pressed;
+			this.time = time;
+		}
+	}
+
+	private ConcurrentLinkedQueue<Input> inputs;
+
+	// inputs in the queue, counted after each offer and poll: without
+	// walking the queue, a count of 1 tells that its head is the last one
+	private AtomicInteger queued = new AtomicInteger();
+
+	private volatile int delay = DEFAULT_DELAY;
+
+	private volatile int rate = DEFAULT_RATE;
+
+	private volatile int softDrop = DEFAULT_SOFT_DROP;
+
+	// written by the thread running the game only
+	private long ticks; // ticks played
+
+	private boolean[] held = new boolean[Control.values().length];
+
+	private long[] pressTick = new long[Control.values().length];
+
+	private Control shift; // LEFT or RIGHT auto-shifting, or null
+
+	/**
+	 * Creates an empty queue, with the default auto-shift and soft drop
+	 */
+	public InputQueue() {
+		inputs = new ConcurrentLinkedQueue<Input>();
+	}
+
+	/**
+	 * Changes the auto-shift of LEFT and RIGHT
+	 * 
+	 * @param delay
+	 *            ticks a key is held before it repeats
+	 * @param rate
+	 *            ticks between two repeats, 0 to move to the wall at once
+	 * @throws IllegalArgumentException
+	 *             if delay <= 0 or rate < 0
+	 */
+	public void setAutoShift(int delay, int rate) {
+		if (delay <= 0 || rate < 0)
+			throw new IllegalArgumentException("Invalid auto-shift = "
+					+ delay + "/" + rate);
+		this.delay = delay;
+		this.rate = rate;
+	}
+
+	/**
+	 * Changes how fast SOFT_DROP moves the piece down
+	 * 
+	 * @param period
+	 *            ticks between two cells
+	 * @throws IllegalArgumentException
+	 *             if period <= 0
+	 */
+	public void setSoftDrop(int period) {
+		if (period <= 0)
+			throw new IllegalArgumentException("Invalid soft drop = "
+					+ period);
+		softDrop = period;
+	}
+
+	/**
+	 * Queues a key press. Can be called from any thread.
+	 * 
+	 * @param control
+	 *            the key
+	 * @param time
+	 *            when it was pressed, from System.nanoTime()
+	 */
+	public void press(Control control, long time) {
+		inputs.offer(new Input(control, true, time));
+		queued.incrementAndGet();
+	}
+
+	/**
+	 * Queues a key release. Can be called from any thread.
+	 * 
+	 * @param control
+	 *            the key
+	 * @param time
+	 *            when it was released, from System.nanoTime()
+	 */
+	public void release(Control control, long time) {
+		inputs.offer(new Input(control, false, time));
+		queued.incrementAndGet();
+	}
+
+	/**
+	 * Plays the keys queued before the given time and the keys held, for one
+	 * tick of the game loop. Called by the thread running the game.
+	 * 
+	 * @param game
+	 *            the game
+	 * @param now
+	 *            the time of the tick, from System.nanoTime()
+	 * @return the number of actions played
+	 */
+	public int tick(GameEngine game, long now) {
+		int played = 0;
+		Input input;
+		while ((input = inputs.peek()) != null && input.time <= now) {
+			// the head is the last input unless another one was counted
+			if (!input.pressed && now - input.time < REPEAT_GAP
+					&& queued.get() <= 1) {
+				break; // a press may follow, wait for the next tick
+			}
+			inputs.poll();
+			queued.decrementAndGet();
+			if (input.pressed) {
+				played += press(game, input.control);
+			} else {
+				Input next = inputs.peek();
+				if (next != null && next.pressed
+						&& next.control == input.control
+						&& next.time - input.time < REPEAT_GAP) {
+					inputs.poll(); // repeated by the system
+					queued.decrementAndGet();
+				} else {
+					release(input.control);
+				}
+			}
+		}
+
+		// the keys held since an earlier tick
+		if (shift != null) {
+			long age = ticks - pressTick[shift.ordinal()];
+			int d = delay, r = rate;
+			if (age >= d && (r == 0 || (age - d) % r == 0)) {
+				played += shift(game, shift, r == 0 ? Grid.WIDTH : 1);
+			}
+		}
+		if (held[Control.SOFT_DROP.ordinal()]) {
+			long age = ticks - pressTick[Control.SOFT_DROP.ordinal()];
+			if (age > 0 && age % softDrop == 0) {
+				played += play(game, Direction.DOWN);
+			}
+		}
+		ticks++;
+		return played;
+	}
+
+	/**
+	 * Plays the press of a key that was not held
+	 */
+	private int press(GameEngine game, Control control) {
+		if (held[control.ordinal()]) {
+			return 0; // repeated by the system
+		}
+		held[control.ordinal()] = true;
+		pressTick[control.ordinal()] = ticks;
+		switch (control) {
+		case LEFT:
+		case RIGHT:
+			shift = control;
+			return shift(game, control, 1);
+		case ROTATE:
+			return play(game, Direction.ROTATE);
+		case DROP:
+			return play(game, Direction.DROP);
+		default:
+			return play(game, Direction.DOWN);
+		}
+	}
+
+	/**
+	 * Releases a key. When LEFT or RIGHT is released and the other is still
+	 * held, the other one shifts again after the delay.
+	 */
+	private void release(Control control) {
+		held[control.ordinal()] = false;
+		if (control == shift) {
+			Control other = control == Control.LEFT ? Control.RIGHT
+					: Control.LEFT;
+			if (held[other.ordinal()]) {
+				shift = other;
+				pressTick[other.ordinal()] = ticks;
+			} else {
+				shift = null;
+			}
+		}
+	}
+
+	/**
+	 * Moves the piece sideways up to the given number of cells, stopping at
+	 * the first move that fails
+	 */
+	private int shift(GameEngine game, Control control, int cells) {
+		Direction direction = control == Control.LEFT ? Direction.LEFT
+				: Direction.RIGHT;
+		int played = 0;
+		for (int i = 0; i < cells; i++) {
+			AbstractPiece piece = game.getPiece();
+			if (piece == null || game.isGameOver()) {
+				break;
+			}
+			int col = piece.getCol(), serial = piece.getSerial();
+			played += play(game, direction);
+			if (game.getPiece() != piece || piece.getSerial() != serial
+					|| piece.getCol() == col) {
+				break;
+			}
+		}
+		return played;
+	}
+
+	/**
+	 * Plays one action, unless the game is over
+	 */
+	private int play(GameEngine game, Direction action) {
+		if (game.isGameOver()) {
+			return 0;
+		}
+		game.step(action);
+		return 1;
+	}
+}
@@ -16,6 +16,11 @@ import java.awt.Color;
  */
 
 public class JShape extends AbstractPiece {
+
+	// (row, col) of the squares from the pivot square, square 1
+	public static final ShapeTemplate TEMPLATE = new ShapeTemplate(3,
+			Color.blue, new int[][] { { -1, 0 }, { 0, 0 },
+					{ 1, 0 }, { 1, -1 } }, true, 1);
 	
 	/**
 	 * Creates a J-Shape piece. See class description for actual location of r
@@ -32,12 +37,6 @@ public class JShape extends AbstractPiece {
 	
 	public JShape(int r, int c, Grid g) {
 		
-		super(r, c, g);
-
-		// Create the squares
-		square[0] = new Square(g, r - 1, c, Color.blue, true);
-		square[1] = new Square(g, r, c, Color.blue, true);
-		square[2] = new Square(g, r + 1, c, Color.blue, true);
-		square[3] = new Square(g, r + 1, c - 1, Color.blue, true);
+		super(r, c, g, TEMPLATE);
 	}
 }
@@ -18,6 +18,11 @@ import java.awt.Point;
  */
 
 public class LShape extends AbstractPiece {
+
+	// (row, col) of the squares from the pivot square, square 1
+	public static final ShapeTemplate TEMPLATE = new ShapeTemplate(7,
+			Color.magenta, new int[][] { { -1, 0 }, { 0, 0 },
+					{ 1, 0 }, { 1, 1 } }, true, 1);
 	
 	/**
 	 * Creates an L-Shape piece. See class description for actual location of r
@@ -34,13 +39,7 @@ public class LShape extends AbstractPiece {
 	
 	public LShape(int r, int c, Grid g) {
 		
-		super(r, c, g);
-
-		// Create the squares
-		square[0] = new Square(g, r - 1, c, Color.magenta, true);
-		square[1] = new Square(g, r, c, Color.magenta, true);
-		square[2] = new Square(g, r + 1, c, Color.magenta, true);
-		square[3] = new Square(g, r + 1, c + 1, Color.magenta, true);
+		super(r, c, g, TEMPLATE);
 	}
 
 }
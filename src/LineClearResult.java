@@ -0,0 +1,40 @@
+/**
+ * The rows removed by one call to Grid.checkRows: how many there were and
+ * where they were before the rows above them moved down.
+ * 
+ * @author dtabys
+ */
+public class LineClearResult {
+
+	// the result when no row is removed
+	public static final LineClearResult NONE = new LineClearResult(new int[0]);
+
+	private int[] rows; // removed rows, top to bottom
+
+	/**
+	 * Creates a result
+	 * 
+	 * @param rows
+	 *            the removed rows, top to bottom
+	 */
+	public LineClearResult(int[] rows) {
+		this.rows = rows;
+	}
+
+	/**
+	 * Returns the number of removed rows
+	 */
+	public int getCount() {
+		return rows.length;
+	}
+
+	/**
+	 * Returns the grid row of the i-th removed row, counting from the top
+	 * 
+	 * @param i
+	 *            between 0 and getCount() - 1
+	 */
+	public int getRow(int i) {
+		return rows[i];
+	}
+}
@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and histograms of every game of the JVM, exported in the
+ * Prometheus text format by a MetricsServer: games started and over, pieces
+ * spawned by type, lines cleared, and the time of the game ticks and of the
+ * paints.
+ * 
+ * The counters are LongAdders, updated by the threads running the games
+ * without contention, and only summed when the metrics are scraped.
+ * 
+ * @author dtabys
+ */
+public class Metrics {
+
+	public static final LongAdder GAMES_STARTED = new LongAdder();
+
+	public static final LongAdder GAMES_OVER = new LongAdder();
+
+	public static final LongAdder LINES_CLEARED = new LongAdder();
+
+	// [piece number - 1]
+	private static final LongAdder[] PIECES_SPAWNED = new LongAdder[PieceRandomizer.PIECE_TYPES];
+
+	public static final Histogram TICK_TIME = new Histogram();
+
+	public static final Histogram PAINT_TIME = new Histogram();
+
+	static {
+		for (int i = 0; i < PIECES_SPAWNED.length; i++) {
+			PIECES_SPAWNED[i] = new LongAdder();
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * Counts a new piece
+	 * 
+	 * @param pieceNum
+	 *            the number of the piece, from 1 to PieceRandomizer.PIECE_TYPES
+	 */
+	public static void pieceSpawned(int pieceNum) {
+		PIECES_SPAWNED[pieceNum - 1].increment();
+	}
+
+	/**
+	 * Returns the number of pieces of the given type created so far
+	 * 
+	 * @param pieceNum
+	 *            the number of the piece, from 1 to PieceRandomizer.PIECE_TYPES
+	 */
+	public static long getPiecesSpawned(int pieceNum) {
+		return PIECES_SPAWNED[pieceNum - 1].sum();
+	}
+
+	/**
+	 * Returns every metric in the Prometheus text format
+	 */
+	public static String scrape() {
+		StringBuilder out = new StringBuilder(2048);
+		counter(out, "tetris_games_started_total", "Games created.",
+				GAMES_STARTED);
+		counter(out, "tetris_games_over_total", "Games finished.",
+				GAMES_OVER);
+		out.append("# HELP tetris_pieces_spawned_total Pieces created, by type.\n");
+		out.append("# TYPE tetris_pieces_spawned_total counter\n");
+		for (int i = 0; i < PIECES_SPAWNED.length; i++) {
+			out.append("tetris_pieces_spawned_total{piece=\"")
+					.append(PieceRandomizer.LETTERS.charAt(i)).append("\"} ")
+					.append(PIECES_SPAWNED[i].sum()).append('\n');
+		}
+		counter(out, "tetris_lines_cleared_total", "Rows removed.",
+				LINES_CLEARED);
+		TICK_TIME.write(out, "tetris_tick_seconds",
+				"Time of the moves and the fall of every game loop tick.");
+		PAINT_TIME.write(out, "tetris_paint_seconds",
+				"Time of a paint of the game window.");
+		return out.toString();
+	}
+
+	/**
+	 * Writes a counter in the Prometheus text format
+	 */
+	private static void counter(StringBuilder out, String name, String help,
+			LongAdder value) {
+		out.append("# HELP ").append(name).append(' ').append(help)
+				.append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		out.append(name).append(' ').append(value.sum()).append('\n');
+	}
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the Metrics of the JVM at /metrics in the Prometheus text format,
+ * with the HTTP server of the JDK. The requests are answered on one daemon
+ * thread of their own, never on a thread running a game. The server only
+ * listens on the loopback address unless another address is given.
+ * 
+ * @author dtabys
+ */
+public class MetricsServer {
+
+	public static final String PATH = "/metrics";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * Starts serving the metrics on the given port of the loopback address
+	 * 
+	 * @param port
+	 *            the port, 0 for any free port
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public MetricsServer(int port) throws IOException {
+		this(null, port);
+	}
+
+	/**
+	 * Starts serving the metrics on the given address and port
+	 * 
+	 * @param address
+	 *            the address to listen on, e.g. 0.0.0.0 for every interface,
+	 *            or null for the loopback address
+	 * @param port
+	 *            the port, 0 for any free port
+	 * @throws IOException
+	 *             if the address is unknown or the port cannot be bound
+	 */
+	public MetricsServer(String address, int port) throws IOException {
+		InetAddress bind = address == null ? InetAddress.getLoopbackAddress()
+				: InetAddress.getByName(address);
+		server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+		server.createContext(PATH, this::handle);
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "Tetris metrics");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Returns the port the metrics are served on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops serving the metrics
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	/**
+	 * Answers a request with the metrics
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
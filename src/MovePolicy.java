@@ -0,0 +1,10 @@
+/**
+ * Chooses the actions of a player. A policy plays one game: it may keep its
+ * own state between two calls, e.g. a plan for the current piece.
+ * 
+ * @author dtabys
+ *
+ */
+public interface MovePolicy {
+	Direction nextAction(GameEngine game);
+}
@@ -0,0 +1,52 @@
+import java.awt.Color;
+
+/**
+ * The colors a square of the grid can have, each with a small index: 0 for
+ * an empty square, then the color of each piece, at the number of the piece
+ * (see Game.createPiece). An index fits in BITS bits.
+ * 
+ * The grid and the squares only keep indices: a Color is looked up here when
+ * a square is drawn.
+ * 
+ * @author dtabys
+ */
+public class Palette {
+
+	public static final int BITS = 3; // bits of an index
+
+	public static final byte EMPTY = 0; // the index of an empty square
+
+	// the colors by index: Grid.EMPTY, then ZShape to LShape
+	private static final Color[] COLORS = { Color.white, Color.red,
+			Color.gray, Color.blue, Color.yellow, Color.green, Color.cyan,
+			Color.magenta };
+
+	public static final int SIZE = COLORS.length;
+
+	/**
+	 * Returns the color of the given index
+	 * 
+	 * @param index
+	 *            from 0 to SIZE - 1
+	 */
+	public static Color getColor(int index) {
+		return COLORS[index];
+	}
+
+	/**
+	 * Returns the index of the given color
+	 * 
+	 * @param c
+	 *            the color
+	 * @throws IllegalArgumentException
+	 *             if the color is not in the palette
+	 */
+	public static int indexOf(Color c) {
+		for (int i = 0; i < SIZE; i++) {
+			if (COLORS[i].equals(c)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Color not in the palette = " + c);
+	}
+}
@@ -0,0 +1,265 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * An overlay showing how the game performs, drawn over the board: the frames
+ * per second, the time of a paint and of a game tick, the latency from a key
+ * press to the next paint, the heap used and, for each garbage collector,
+ * the collections and collection time of the last GC_WINDOW.
+ * 
+ * The times are kept in SampleRings, and the text is built in a reused
+ * buffer, so that measuring and drawing allocate nothing. The paints and the
+ * key presses are recorded on the Swing thread, the ticks on the thread
+ * running the game.
+ * 
+ * @author dtabys
+ */
+public class PerfHud {
+
+	public static final int SAMPLES = 64; // samples kept of each measure
+
+	// where the overlay is drawn
+	private static final int X = 5, Y = 5;
+
+	private static final int LINE_HEIGHT = 13;
+
+	private static final int WIDTH = 260;
+
+	private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+
+	private static final Color BACKGROUND = new Color(0, 0, 0, 160);
+
+	// in ns, the collections are shown per second
+	public static final long GC_WINDOW = 1_000_000_000L;
+
+	private volatile boolean visible;
+
+	private SampleRing frames = new SampleRing(SAMPLES); // between paints
+
+	private SampleRing paints = new SampleRing(SAMPLES);
+
+	private SampleRing ticks = new SampleRing(SAMPLES);
+
+	private SampleRing latencies = new SampleRing(SAMPLES);
+
+	private long lastPaint; // start of the previous paint, 0 before
+
+	private long input; // time of the first key not painted yet, 0 if none
+
+	private GarbageCollectorMXBean[] collectors;
+
+	// collections and collection time (ms) of each collector, at the start
+	// of the current window and during the last one
+	private long[] startCounts, startTimes, counts, times;
+
+	private long windowStart; // start of the current window
+
+	private int lines; // lines of text
+
+	// the text of a line, built without allocating
+	private StringBuilder text = new StringBuilder(64);
+
+	private char[] chars = new char[64];
+
+	/**
+	 * Creates a hidden overlay
+	 */
+	public PerfHud() {
+		List<GarbageCollectorMXBean> beans = ManagementFactory
+				.getGarbageCollectorMXBeans();
+		collectors = beans.toArray(new GarbageCollectorMXBean[beans.size()]);
+		lines = 5 + collectors.length;
+		startCounts = new long[collectors.length];
+		startTimes = new long[collectors.length];
+		counts = new long[collectors.length];
+		times = new long[collectors.length];
+		for (int i = 0; i < collectors.length; i++) {
+			startCounts[i] = collectors[i].getCollectionCount();
+			startTimes[i] = collectors[i].getCollectionTime();
+		}
+		windowStart = System.nanoTime();
+	}
+
+	/**
+	 * Shows the overlay if it is hidden, hides it otherwise
+	 */
+	public void toggle() {
+		visible = !visible;
+	}
+
+	/**
+	 * Returns true if the overlay is shown
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
+	/**
+	 * Sets the given rectangle to the pixels covered by the overlay
+	 * 
+	 * @param bounds
+	 *            receives the bounds of the overlay
+	 */
+	public void getBounds(Rectangle bounds) {
+		bounds.setBounds(X, Y, WIDTH, lines * LINE_HEIGHT + 4);
+	}
+
+	/**
+	 * Records the press of a key of the game, to measure the time until the
+	 * next paint. Called on the Swing thread.
+	 */
+	public void keyPressed() {
+		if (input == 0) {
+			input = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Records the time a game tick took, e.g. around Game.step
+	 * 
+	 * @param nanos
+	 *            the time of the tick, in ns
+	 */
+	public void recordTick(long nanos) {
+		ticks.add(nanos);
+	}
+
+	/**
+	 * Records the start of a paint, returns the time to give to paintEnded.
+	 * Called on the Swing thread.
+	 */
+	public long paintStarted() {
+		long now = System.nanoTime();
+		if (lastPaint != 0) {
+			frames.add(now - lastPaint);
+		}
+		lastPaint = now;
+		if (now - windowStart >= GC_WINDOW) {
+			sampleCollectors(now);
+		}
+		return now;
+	}
+
+	/**
+	 * Ends the current window: keeps the collections made during it and
+	 * starts the next one
+	 */
+	private void sampleCollectors(long now) {
+		for (int i = 0; i < collectors.length; i++) {
+			long count = collectors[i].getCollectionCount();
+			long time = collectors[i].getCollectionTime();
+			counts[i] = count - startCounts[i];
+			times[i] = time - startTimes[i];
+			startCounts[i] = count;
+			startTimes[i] = time;
+		}
+		windowStart = now;
+	}
+
+	/**
+	 * Records the end of a paint, and the latency of the key presses it
+	 * shows. Called on the Swing thread.
+	 * 
+	 * @param start
+	 *            the time returned by paintStarted
+	 */
+	public void paintEnded(long start) {
+		long now = System.nanoTime();
+		paints.add(now - start);
+		if (input != 0) {
+			latencies.add(now - input);
+			input = 0;
+		}
+	}
+
+	/**
+	 * Draws the overlay on the given Graphics context, if it is shown
+	 */
+	public void draw(Graphics g) {
+		if (!visible) {
+			return;
+		}
+		g.setColor(BACKGROUND);
+		g.fillRect(X, Y, WIDTH, lines * LINE_HEIGHT + 4);
+		g.setColor(Color.WHITE);
+		g.setFont(FONT);
+		int y = Y + LINE_HEIGHT;
+
+		long frame = frames.getMean();
+		text.setLength(0);
+		text.append("fps      ");
+		appendTenths(frame == 0 ? 0 : 10_000_000_000L / frame);
+		drawLine(g, y);
+		y += LINE_HEIGHT;
+
+		drawTimes(g, y, "paint    ", paints);
+		y += LINE_HEIGHT;
+		drawTimes(g, y, "tick     ", ticks);
+		y += LINE_HEIGHT;
+		drawTimes(g, y, "latency  ", latencies);
+		y += LINE_HEIGHT;
+
+		Runtime runtime = Runtime.getRuntime();
+		text.setLength(0);
+		text.append("heap     ")
+				.append((runtime.totalMemory() - runtime.freeMemory()) >> 20)
+				.append(" / ").append(runtime.maxMemory() >> 20).append(" MB");
+		drawLine(g, y);
+		y += LINE_HEIGHT;
+
+		for (int i = 0; i < collectors.length; i++) {
+			text.setLength(0);
+			text.append("gc/s ").append(collectors[i].getName()).append(": ")
+					.append(counts[i]).append(", ").append(times[i])
+					.append(" ms");
+			drawLine(g, y);
+			y += LINE_HEIGHT;
+		}
+	}
+
+	/**
+	 * Draws the mean and the largest of the given times, in ms
+	 */
+	private void drawTimes(Graphics g, int y, String label, SampleRing ring) {
+		text.setLength(0);
+		text.append(label);
+		appendMillis(ring.getMean());
+		text.append(" ms, max ");
+		appendMillis(ring.getMax());
+		text.append(" ms");
+		drawLine(g, y);
+	}
+
+	/**
+	 * Appends a time in ns as ms with two decimals
+	 */
+	private void appendMillis(long nanos) {
+		long hundredths = nanos / 10_000;
+		text.append(hundredths / 100).append('.');
+		if (hundredths % 100 < 10) {
+			text.append('0');
+		}
+		text.append(hundredths % 100);
+	}
+
+	/**
+	 * Appends a number given in tenths with one decimal
+	 */
+	private void appendTenths(long tenths) {
+		text.append(tenths / 10).append('.').append(tenths % 10);
+	}
+
+	/**
+	 * Draws the text built so far as one line
+	 */
+	private void drawLine(Graphics g, int y) {
+		int n = Math.min(text.length(), chars.length);
+		text.getChars(0, n, chars, 0);
+		g.drawChars(chars, 0, n, X + 4, y);
+	}
+}
@@ -0,0 +1,323 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the distinct grids reachable from a starting grid by placing a fixed
+ * sequence of pieces, like perft counts chess positions: a check of the move
+ * rules and a benchmark of how fast the placements are generated.
+ * 
+ * The placements of a piece are found by trying every move from its spawn
+ * position, with the rules of the game: LEFT, RIGHT, ROTATE (with its kicks)
+ * and DOWN, and a piece locks as soon as a move leaves it unable to move
+ * down. Each distinct rotation and position where the piece can lock is one
+ * placement; the piece is then locked and the full rows removed.
+ * 
+ * Grids are compared by their Zobrist hash. With the transposition table, a
+ * grid met again after the same number of placements is not searched again:
+ * it leads to the same grids. The subtrees of the first placements are
+ * searched in parallel.
+ * 
+ * Usage: java Perft [-depth n] [-pieces ZOJTSIL] [-threads n] [-noTable]
+ * 
+ * @author dtabys
+ */
+public class Perft {
+
+	// the states of a piece: rotation, and pivot row and column with room
+	// around the grid
+	private static final int PAD = 4;
+
+	private static final int ROWS = Grid.HEIGHT + 2 * PAD;
+
+	private static final int COLS = Grid.WIDTH + 2 * PAD;
+
+	private static final int STATES = ShapeTemplate.ROTATIONS * ROWS * COLS;
+
+	private static final Direction[] MOVES = { Direction.LEFT,
+			Direction.RIGHT, Direction.ROTATE, Direction.DOWN };
+
+	/**
+	 * The scratch of the search on one thread: the grid and the placements of
+	 * each depth, and the queue of the states of the piece being moved
+	 */
+	private static class Search {
+		Grid[] grids;
+
+		int[][] placements; // [depth] = states where the piece locks
+
+		int[] queue = new int[STATES];
+
+		int[] visited = new int[STATES]; // the mark of the states seen
+
+		int mark;
+
+		Search(int depth) {
+			grids = new Grid[depth + 1];
+			placements = new int[depth + 1][STATES];
+			for (int i = 0; i <= depth; i++) {
+				grids[i] = new Grid();
+			}
+		}
+	}
+
+	private Grid start;
+
+	private int[] pieces; // the piece numbers, repeated if too short
+
+	private boolean useTable; // skip grids already searched?
+
+	private AtomicLong nodes = new AtomicLong(); // placements made
+
+	private Set<Long> finals; // the distinct grids after the last piece
+
+	private List<Set<Long>> table; // .get(depth) = grids already searched
+
+	/**
+	 * Creates a perft search
+	 * 
+	 * @param start
+	 *            the starting grid, not changed
+	 * @param pieces
+	 *            the numbers of the pieces to place, from 1 to
+	 *            PieceRandomizer.PIECE_TYPES, repeated if shorter than the
+	 *            depth
+	 * @param useTable
+	 *            true to search each grid only once per depth
+	 */
+	public Perft(Grid start, int[] pieces, boolean useTable) {
+		this.start = start;
+		this.pieces = pieces;
+		this.useTable = useTable;
+	}
+
+	/**
+	 * Returns the number of placements made by the last count
+	 */
+	public long getNodes() {
+		return nodes.get();
+	}
+
+	/**
+	 * Returns the number of distinct grids after placing depth pieces
+	 * 
+	 * @param depth
+	 *            the number of pieces to place
+	 * @param threads
+	 *            the number of threads searching the subtrees
+	 */
+	public long count(final int depth, int threads) {
+		nodes.set(0);
+		finals = ConcurrentHashMap.newKeySet();
+		table = new ArrayList<Set<Long>>(depth);
+		for (int i = 0; i < depth; i++) {
+			table.add(ConcurrentHashMap.newKeySet());
+		}
+		if (depth == 0) {
+			finals.add(start.getHash());
+			return 1;
+		}
+
+		// the first placements are made here, their subtrees on the pool
+		final Search first = new Search(depth);
+		first.grids[0].copyFrom(start);
+		final int n = findPlacements(first, 0);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(n);
+			for (int i = 0; i < n; i++) {
+				final int state = first.placements[0][i];
+				tasks.add(pool.submit(() -> {
+					Search search = new Search(depth);
+					search.grids[0].copyFrom(start);
+					place(search, 0, state);
+					search(search, 1, depth);
+				}));
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return finals.size();
+	}
+
+	/**
+	 * Places the pieces from the given depth on search.grids[depth], down to
+	 * the last one
+	 */
+	private void search(Search search, int depth, int last) {
+		Grid grid = search.grids[depth];
+		if (depth == last) {
+			finals.add(grid.getHash());
+			return;
+		}
+		if (useTable && !table.get(depth).add(grid.getHash())) {
+			return; // searched already
+		}
+		int n = findPlacements(search, depth);
+		for (int i = 0; i < n; i++) {
+			place(search, depth, search.placements[depth][i]);
+			search(search, depth + 1, last);
+		}
+	}
+
+	/**
+	 * Copies the grid of the given depth to the next depth, and locks the
+	 * piece of this depth in it at the given state
+	 */
+	private void place(Search search, int depth, int state) {
+		ShapeTemplate t = ShapeTemplate.forPiece(piece(depth));
+		int rotation = state / (ROWS * COLS);
+		int row = state / COLS % ROWS - PAD;
+		int col = state % COLS - PAD;
+
+		Grid grid = search.grids[depth + 1];
+		grid.copyFrom(search.grids[depth]);
+		for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+			grid.set(row + t.getRowOffset(rotation, i),
+					col + t.getColOffset(rotation, i), t.getColorIndex());
+		}
+		int top = row + t.getTop(rotation);
+		grid.checkRows(top, top + t.getHeight(rotation) - 1);
+		nodes.incrementAndGet();
+	}
+
+	/**
+	 * Finds every state where the piece of the given depth can lock on the
+	 * grid of that depth, by a breadth first search of the moves from its
+	 * spawn position. Returns the number of states found.
+	 */
+	private int findPlacements(Search search, int depth) {
+		Grid grid = search.grids[depth];
+		int piece = piece(depth);
+		ShapeTemplate t = ShapeTemplate.forPiece(piece);
+		int[] out = search.placements[depth];
+		int count = 0;
+
+		int row = Game.getSpawnRow(piece), col = Game.getSpawnCol(piece);
+		if (!t.fits(grid, 0, row, col)) {
+			return 0; // the game is over
+		}
+
+		// a new mark for each search, so that visited is never cleared
+		int mark = ++search.mark;
+		int head = 0, tail = 0;
+		int spawn = state(0, row, col);
+		search.queue[tail++] = spawn;
+		if (t.fits(grid, 0, row + 1, col)) {
+			// else the spawn state is where any move that fails locks it
+			search.visited[spawn] = mark;
+		}
+		while (head < tail) {
+			int s = search.queue[head++];
+			int rotation = s / (ROWS * COLS);
+			int r = s / COLS % ROWS - PAD;
+			int c = s % COLS - PAD;
+			for (Direction move : MOVES) {
+				int nr = r, nc = c, nrot = rotation;
+				if (move == Direction.ROTATE) {
+					if (t.getRotationCount() > 1) {
+						int kick = t.findKick(grid, rotation, r, c);
+						if (kick >= 0) {
+							nr += t.getKickRow(rotation, kick);
+							nc += t.getKickCol(rotation, kick);
+							nrot = (rotation + 1) % ShapeTemplate.ROTATIONS;
+						}
+					}
+				} else {
+					int dr = move == Direction.DOWN ? 1 : 0;
+					int dc = move == Direction.LEFT ? -1
+							: move == Direction.RIGHT ? 1 : 0;
+					if (t.fits(grid, rotation, r + dr, c + dc)) {
+						nr += dr;
+						nc += dc;
+					}
+				}
+
+				int next = state(nrot, nr, nc);
+				if (search.visited[next] == mark) {
+					continue;
+				}
+				search.visited[next] = mark;
+				if (t.fits(grid, nrot, nr + 1, nc)) {
+					search.queue[tail++] = next; // still falling
+				} else {
+					out[count++] = next; // the move locks the piece
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of the piece placed at the given depth
+	 */
+	private int piece(int depth) {
+		return pieces[depth % pieces.length];
+	}
+
+	/**
+	 * Returns the index of a state of a piece
+	 */
+	private static int state(int rotation, int row, int col) {
+		return (rotation * ROWS + row + PAD) * COLS + col + PAD;
+	}
+
+	/**
+	 * Counts the grids of the placements given by the arguments, from an
+	 * empty grid, for every depth up to the given one, and prints the counts
+	 * and the speed
+	 */
+	public static void main(String[] args) {
+		int depth = 3, threads = Runtime.getRuntime().availableProcessors();
+		String letters = PieceRandomizer.LETTERS;
+		boolean useTable = true;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-depth":
+				depth = Integer.parseInt(args[++i]);
+				break;
+			case "-pieces":
+				letters = args[++i];
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-noTable":
+				useTable = false;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid argument = "
+						+ args[i]);
+			}
+		}
+
+		int[] pieces = new int[letters.length()];
+		for (int i = 0; i < pieces.length; i++) {
+			pieces[i] = PieceRandomizer.LETTERS.indexOf(Character.toUpperCase(letters
+					.charAt(i))) + 1;
+			if (pieces[i] == 0)
+				throw new IllegalArgumentException("Invalid piece = "
+						+ letters.charAt(i));
+		}
+
+		Perft perft = new Perft(new Grid(), pieces, useTable);
+		System.out.printf("pieces %s, %d threads, table %s%n", letters,
+				threads, useTable ? "on" : "off");
+		for (int d = 1; d <= depth; d++) {
+			long start = System.nanoTime();
+			long grids = perft.count(d, threads);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf(
+					"depth %d  grids %12d  nodes %12d  %8.3f s  %,.0f nodes/s%n",
+					d, grids, perft.getNodes(), seconds, perft.getNodes()
+							/ seconds);
+		}
+	}
+}
@@ -13,6 +13,7 @@ public interface Piece {
 	void draw(Graphics g);
 	void move(Direction direction);
 	Point[] getLocations();
+	void getLocations(int[] rows, int[] cols);
 	Color getColor();
 	boolean canMove(Direction direction);
 	boolean canRotate();
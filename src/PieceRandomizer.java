@@ -0,0 +1,28 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses the pieces of a game. Pieces are numbered from 1 to PIECE_TYPES as
+ * in Game.createPiece. A randomizer is started from a seed: the same seed
+ * always gives the same pieces, and BatchRunner.createRandomizer makes a
+ * randomizer again from its name and seed. Its state can also be saved in
+ * STATE_SIZE bytes and restored, e.g. to restore a saved game.
+ * 
+ * @author dtabys
+ *
+ */
+public interface PieceRandomizer {
+	// number of different pieces
+	int PIECE_TYPES = 7;
+
+	// letters of the pieces 1 to PIECE_TYPES, as in Game.createPiece
+	String LETTERS = "ZOJTSIL";
+
+	// bytes of a saved state
+	int STATE_SIZE = 16;
+
+	int next();
+	long getSeed();
+	String getName();
+	void save(ByteBuffer out);
+	void restore(ByteBuffer in);
+}
@@ -0,0 +1,42 @@
+import java.util.SplittableRandom;
+
+/**
+ * Plays random actions: the piece is moved sideways, rotated or moved down at
+ * random, and dropped after a few actions.
+ * 
+ * @author dtabys
+ */
+public class RandomPolicy implements MovePolicy {
+
+	// the actions chosen at random before the piece is dropped
+	private static final Direction[] ACTIONS = { Direction.LEFT,
+			Direction.RIGHT, Direction.ROTATE, Direction.DOWN };
+
+	private static final int MAX_ACTIONS = 8; // most actions before a drop
+
+	private SplittableRandom rand;
+
+	private int actions; // actions played on the current piece
+
+	/**
+	 * Creates a policy
+	 * 
+	 * @param seed
+	 *            the seed of the random actions
+	 */
+	public RandomPolicy(long seed) {
+		rand = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Returns a random action for the current piece
+	 */
+	public Direction nextAction(GameEngine game) {
+		if (actions >= rand.nextInt(MAX_ACTIONS + 1)) {
+			actions = 0;
+			return Direction.DROP;
+		}
+		actions++;
+		return ACTIONS[rand.nextInt(ACTIONS.length)];
+	}
+}
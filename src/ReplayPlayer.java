@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays a replay log written by a ReplayRecorder: the game is made again from
+ * the randomizer of the log, and every event is played in order, either all
+ * at once at full speed or one loop tick (FRAME) at a time.
+ * 
+ * The log is memory-mapped. To seek to a frame, the player looks up the last
+ * keyframe at or before it in the index with a binary search, restores the
+ * game from the keyframe and plays the frames left, less than the keyframe
+ * interval.
+ * 
+ * A log without a trailer, e.g. from a game that did not end normally, is
+ * played up to its last complete block, cannot be verified, and can only
+ * seek forward.
+ * 
+ * Usage: java ReplayPlayer file... plays each log at full speed and checks
+ * the final grid.
+ * 
+ * @author dtabys
+ */
+public class ReplayPlayer {
+
+	private static final Direction[] ACTIONS = Direction.values();
+
+	private MappedByteBuffer log;
+
+	private String randomizer; // name of the randomizer
+
+	private long seed;
+
+	private int tickRate;
+
+	private int interval; // frames between two keyframes
+
+	private int start; // offset of the first block
+
+	private int end; // offset after the last block
+
+	private boolean verifiable; // has the log a trailer?
+
+	private long events; // events in the log, if verifiable
+
+	private long frames; // frames in the log, if verifiable
+
+	private long finalHash; // hash of the final grid, if verifiable
+
+	private ByteBuffer index; // frame, events and offset of each keyframe
+
+	private int keyframes;
+
+	// where the player is
+	private int block; // offset of the current events block
+
+	private int blockEvents; // events in the current block
+
+	private int blockPlayed; // events of the current block played
+
+	private long played; // events played
+
+	private long frame; // frames played
+
+	/**
+	 * Reads a replay log
+	 * 
+	 * @param file
+	 *            the log
+	 * @throws IOException
+	 *             if the file cannot be read or is not a replay log
+	 */
+	public ReplayPlayer(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (log.limit() < 16 || log.getInt() != ReplayRecorder.MAGIC
+				|| log.get() != ReplayRecorder.VERSION) {
+			throw new IOException("Not a replay log: " + file);
+		}
+		byte[] name = new byte[log.get()];
+		log.get(name);
+		randomizer = new String(name, StandardCharsets.US_ASCII);
+		seed = log.getLong();
+		tickRate = log.getShort();
+		interval = log.getInt();
+		start = log.position();
+
+		end = log.limit();
+		int trailer = end - ReplayRecorder.TRAILER_SIZE;
+		if (trailer >= start && log.getInt(end - 4) == ReplayRecorder.END) {
+			verifiable = true;
+			events = log.getLong(trailer);
+			frames = log.getLong(trailer + 8);
+			finalHash = log.getLong(trailer + 16);
+			end = (int) log.getLong(trailer + 24);
+			keyframes = log.getInt(trailer + 32);
+			index = log.duplicate();
+			index.position(end);
+			index = index.slice();
+		}
+		block = start;
+	}
+
+	/**
+	 * Returns a new game, in the state the recorded game started from
+	 */
+	public Game createGame() {
+		return new Game(BatchRunner.createRandomizer(randomizer, seed));
+	}
+
+	/**
+	 * Returns the tick rate of the game loop that recorded the log
+	 */
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	/**
+	 * Returns the number of frames between two keyframes
+	 */
+	public int getKeyframeInterval() {
+		return interval;
+	}
+
+	/**
+	 * Returns the number of events in the log, if it is verifiable
+	 */
+	public long getEvents() {
+		return events;
+	}
+
+	/**
+	 * Returns the number of frames in the log, if it is verifiable
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of keyframes in the index
+	 */
+	public int getKeyframes() {
+		return keyframes;
+	}
+
+	/**
+	 * Returns true if the log has the hash of its final grid and an index
+	 */
+	public boolean isVerifiable() {
+		return verifiable;
+	}
+
+	/**
+	 * Returns the hash of the final grid of the recorded game
+	 */
+	public long getFinalHash() {
+		return finalHash;
+	}
+
+	/**
+	 * Returns the number of events played
+	 */
+	public long getPlayed() {
+		return played;
+	}
+
+	/**
+	 * Returns the number of frames played
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Plays the events of the next loop tick, up to the next FRAME
+	 * 
+	 * @param game
+	 *            the game made by createGame
+	 * @return false if the log is finished
+	 */
+	public boolean playFrame(GameEngine game) {
+		int code;
+		while ((code = nextCode()) >= 0) {
+			if (play(game, code) == ReplayRecorder.FRAME) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Plays every event left
+	 * 
+	 * @param game
+	 *            the game made by createGame
+	 */
+	public void playAll(GameEngine game) {
+		int code;
+		while ((code = nextCode()) >= 0) {
+			play(game, code);
+		}
+	}
+
+	/**
+	 * Puts the game in its state at the end of the given frame: from the last
+	 * keyframe at or before the frame if the log has an index, else by
+	 * playing on from where the player is. Before the first keyframe, the
+	 * game is in the state of the first keyframe and getFrame() returns its
+	 * frame: nothing happens to the game before it.
+	 * 
+	 * @param game
+	 *            the game made by createGame
+	 * @param target
+	 *            the number of frames played after the seek
+	 * @return false if the player cannot go back to the frame, or the log
+	 *         ends before it
+	 */
+	public boolean seek(Game game, long target) {
+		if (keyframes > 0) {
+			// the last keyframe at or before target, else the first one:
+			// only frames come before the first keyframe
+			int lo = 0, hi = keyframes - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (index.getLong(mid * ReplayRecorder.INDEX_ENTRY) <= target) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			int entry = lo * ReplayRecorder.INDEX_ENTRY;
+			long keyframe = index.getLong(entry);
+			if (target < frame || keyframe > frame) {
+				// restore the keyframe, then play on from the block after it
+				int offset = (int) index.getLong(entry + 16);
+				ByteBuffer state = log.duplicate();
+				state.position(offset + ReplayRecorder.KEYFRAME_HEADER);
+				game.readState(state);
+				frame = keyframe;
+				played = index.getLong(entry + 8);
+				block = state.position();
+				blockEvents = 0;
+				blockPlayed = 0;
+			}
+		} else if (target < frame) {
+			return false;
+		}
+		while (frame < target) {
+			if (!playFrame(game)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Plays one event, returns its code
+	 */
+	private int play(GameEngine game, int code) {
+		if (code == ReplayRecorder.TICK) {
+			game.tick();
+		} else if (code == ReplayRecorder.FRAME) {
+			frame++;
+		} else {
+			game.step(ACTIONS[code]);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the code of the next event, or -1 at the end of the log. The
+	 * keyframes on the way are skipped: the game is already in their state.
+	 */
+	private int nextCode() {
+		while (blockPlayed == blockEvents) {
+			// the next events block
+			if (blockEvents > 0) {
+				block += 5 + (blockEvents * ReplayRecorder.BITS + 7) / 8;
+				blockEvents = 0;
+				blockPlayed = 0;
+			}
+			if (block + 5 > end) {
+				return -1;
+			}
+			byte type = log.get(block);
+			if (type == ReplayRecorder.KEYFRAME) {
+				block += ReplayRecorder.KEYFRAME_HEADER + Game.STATE_SIZE;
+			} else {
+				int count = log.getInt(block + 1);
+				if (block + 5 + (count * ReplayRecorder.BITS + 7) / 8 > end) {
+					return -1; // cut short
+				}
+				if (count == 0) {
+					block += 5;
+				}
+				blockEvents = count;
+			}
+		}
+
+		int bit = blockPlayed++ * ReplayRecorder.BITS;
+		int i = block + 5 + (bit >>> 3);
+		int shift = bit & 7;
+		int b = log.get(i) & 0xFF;
+		if (shift > 8 - ReplayRecorder.BITS) {
+			b |= (log.get(i + 1) & 0xFF) << 8; // the code spans two bytes
+		}
+		played++;
+		return (b >>> shift) & ((1 << ReplayRecorder.BITS) - 1);
+	}
+
+	/**
+	 * Plays each log given as argument at full speed, and checks the final
+	 * grid against the hash in the log. Exits with status 1 if a grid is
+	 * different.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean ok = true;
+		for (String arg : args) {
+			ReplayPlayer player = new ReplayPlayer(Paths.get(arg));
+			Game game = player.createGame();
+			long start = System.nanoTime();
+			player.playAll(game);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			String result;
+			if (!player.isVerifiable()) {
+				result = "not verifiable";
+			} else if (game.getGrid().getHash() == player.getFinalHash()) {
+				result = "OK";
+			} else {
+				result = "MISMATCH";
+				ok = false;
+			}
+			System.out.printf("%s: %d events, %d frames, %d keyframes in %.3f s (%.0f events/s), %d lines, %s%n",
+					arg, player.getPlayed(), player.getFrame(),
+					player.getKeyframes(), seconds, player.getPlayed()
+							/ seconds, game.getLinesCleared(), result);
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+}
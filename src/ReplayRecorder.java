@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Records a game in a binary replay log, to play it again exactly with a
+ * ReplayPlayer.
+ * 
+ * The log starts with a header: MAGIC, VERSION, the name and seed of the
+ * randomizer, the tick rate of the game loop and the keyframe interval. Then
+ * come blocks of events and keyframes:
+ * 
+ * An EVENTS block holds the number of its events, then 3 bits per event: the
+ * ordinal of a Direction played by Game.step (0 to 5), TICK for a Game.tick,
+ * or FRAME at the end of each tick of the game loop, which only paces a
+ * playback in real time. The codes are packed 8 to 3 bytes.
+ * 
+ * A KEYFRAME block holds the number of frames and events before it and the
+ * state of the game (Game.writeState). A keyframe is written before the
+ * first event of the game and then before the first event after every
+ * interval of frames, so that a player can seek to any frame by restoring
+ * the keyframe before it and playing less than an interval of frames.
+ * 
+ * Closing the log writes the index of the keyframes (frame, events and
+ * offset of each, by frame) and a trailer: the number of events and frames,
+ * the hash of the final grid, the offset of the index, the number of
+ * keyframes and END. Everything is written through a buffered FileChannel.
+ * 
+ * The events come from the thread running the game and the frames from the
+ * game loop: the methods are synchronized.
+ * 
+ * @author dtabys
+ */
+public class ReplayRecorder {
+
+	public static final int MAGIC = 0x5452504C; // "TRPL"
+
+	public static final int END = 0x54454E44; // "TEND"
+
+	public static final int VERSION = 2;
+
+	public static final int BITS = 3; // bits per event
+
+	public static final int TICK = 6; // the code of a Game.tick
+
+	public static final int FRAME = 7; // the code of the end of a loop tick
+
+	// the types of the blocks
+	public static final byte EVENTS = 'E';
+
+	public static final byte KEYFRAME = 'K';
+
+	// bytes before the state of the game in a keyframe block
+	public static final int KEYFRAME_HEADER = 17;
+
+	// bytes of an entry of the index: frame, events and offset
+	public static final int INDEX_ENTRY = 24;
+
+	// events, frames, hash, index offset, keyframes and END
+	public static final int TRAILER_SIZE = 40;
+
+	// frames between two keyframes: 10 s at 60 ticks per second
+	public static final int KEYFRAME_INTERVAL = 600;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final int BLOCK_SIZE = 4096; // most bytes of events
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	private long written; // bytes written to the channel
+
+	private byte[] block; // the events of the block being recorded
+
+	private int blockBytes; // complete bytes in block
+
+	private int blockEvents;
+
+	private long bits; // codes not yet in block, the first in the low bits
+
+	private int bitCount;
+
+	private long events; // codes recorded
+
+	private long frames; // FRAME codes recorded
+
+	private int interval; // frames between two keyframes
+
+	private long lastKeyframe; // frame of the last keyframe
+
+	// the index: frame, events and offset of each keyframe
+	private long[] index = new long[3 * 64];
+
+	private int keyframes;
+
+	private boolean closed;
+
+	private boolean failed; // could not write, the game goes on unrecorded
+
+	/**
+	 * Creates a replay log with a keyframe every KEYFRAME_INTERVAL frames,
+	 * replacing the file if it exists
+	 * 
+	 * @param file
+	 *            the file of the log
+	 * @param randomizer
+	 *            the randomizer of the game, before it has dealt any piece
+	 * @param tickRate
+	 *            ticks per second of the game loop
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public ReplayRecorder(Path file, PieceRandomizer randomizer, int tickRate)
+			throws IOException {
+		this(file, randomizer, tickRate, KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Creates a replay log, replacing the file if it exists
+	 * 
+	 * @param file
+	 *            the file of the log
+	 * @param randomizer
+	 *            the randomizer of the game, before it has dealt any piece
+	 * @param tickRate
+	 *            ticks per second of the game loop
+	 * @param interval
+	 *            frames between two keyframes
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public ReplayRecorder(Path file, PieceRandomizer randomizer,
+			int tickRate, int interval) throws IOException {
+		this.interval = interval;
+		lastKeyframe = -interval; // a keyframe before the first event
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		block = new byte[BLOCK_SIZE];
+
+		byte[] name = randomizer.getName().getBytes(StandardCharsets.US_ASCII);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) name.length);
+		buffer.put(name);
+		buffer.putLong(randomizer.getSeed());
+		buffer.putShort((short) tickRate);
+		buffer.putInt(interval);
+	}
+
+	/**
+	 * Records an action played by Game.step, before it is played
+	 * 
+	 * @param action
+	 *            the action
+	 * @param game
+	 *            the game, saved in a keyframe if one is due
+	 */
+	public synchronized void record(Direction action, Game game) {
+		keyframeIfDue(game);
+		append(action.ordinal());
+	}
+
+	/**
+	 * Records a Game.tick, before it is played
+	 * 
+	 * @param game
+	 *            the game, saved in a keyframe if one is due
+	 */
+	public synchronized void tick(Game game) {
+		keyframeIfDue(game);
+		append(TICK);
+	}
+
+	/**
+	 * Records the end of a tick of the game loop
+	 */
+	public synchronized void frame() {
+		append(FRAME);
+		frames++;
+	}
+
+	/**
+	 * Returns the number of events recorded
+	 */
+	public synchronized long getEvents() {
+		return events;
+	}
+
+	/**
+	 * Returns the number of keyframes recorded
+	 */
+	public synchronized int getKeyframes() {
+		return keyframes;
+	}
+
+	/**
+	 * Writes the last events, the index and the trailer, and closes the file.
+	 * Does nothing if the log is already closed.
+	 * 
+	 * @param hash
+	 *            the hash of the final grid, Grid.getHash()
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public synchronized void close(long hash) throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (failed) {
+				return;
+			}
+			writeBlock();
+			long indexOffset = written + buffer.position();
+			for (int i = 0; i < 3 * keyframes; i++) {
+				if (buffer.remaining() < 8) {
+					flush();
+				}
+				buffer.putLong(index[i]);
+			}
+			if (buffer.remaining() < TRAILER_SIZE) {
+				flush();
+			}
+			buffer.putLong(events);
+			buffer.putLong(frames);
+			buffer.putLong(hash);
+			buffer.putLong(indexOffset);
+			buffer.putInt(keyframes);
+			buffer.putInt(END);
+			flush();
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes a keyframe of the game if an interval of frames has passed since
+	 * the last one
+	 */
+	private void keyframeIfDue(Game game) {
+		if (closed || failed || frames - lastKeyframe < interval) {
+			return;
+		}
+		long offset;
+		try {
+			// the keyframe follows every event before it
+			writeBlock();
+			if (buffer.remaining() < KEYFRAME_HEADER + Game.STATE_SIZE) {
+				flush();
+			}
+			offset = written + buffer.position();
+			buffer.put(KEYFRAME);
+			buffer.putLong(frames);
+			buffer.putLong(events);
+			game.writeState(buffer);
+		} catch (IOException e) {
+			fail(e);
+			return;
+		}
+
+		if (3 * keyframes == index.length) {
+			index = Arrays.copyOf(index, 2 * index.length);
+		}
+		index[3 * keyframes] = frames;
+		index[3 * keyframes + 1] = events;
+		index[3 * keyframes + 2] = offset;
+		keyframes++;
+		lastKeyframe = frames;
+	}
+
+	/**
+	 * Adds the code of an event to the block, writing the block when full
+	 */
+	private void append(int code) {
+		if (closed || failed) {
+			return;
+		}
+		bits |= (long) code << bitCount;
+		bitCount += BITS;
+		events++;
+		blockEvents++;
+		while (bitCount >= 8) {
+			block[blockBytes++] = (byte) bits;
+			bits >>>= 8;
+			bitCount -= 8;
+		}
+		// keep a byte for the bits of the last codes, see writeBlock
+		if (blockBytes == BLOCK_SIZE - 1) {
+			try {
+				writeBlock();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the block of events, if any, and starts a new one. The last
+	 * byte of a block is padded with FRAME codes.
+	 */
+	private void writeBlock() throws IOException {
+		if (blockEvents == 0) {
+			return;
+		}
+		if (bitCount > 0) {
+			block[blockBytes++] = (byte) (bits | (0xFF << bitCount));
+		}
+		if (buffer.remaining() < 5 + blockBytes) {
+			flush();
+		}
+		buffer.put(EVENTS);
+		buffer.putInt(blockEvents);
+		buffer.put(block, 0, blockBytes);
+		blockBytes = 0;
+		blockEvents = 0;
+		bits = 0;
+		bitCount = 0;
+	}
+
+	/**
+	 * Stops recording after an error: the game goes on
+	 */
+	private void fail(IOException e) {
+		failed = true;
+		System.err.println("Replay not recorded: " + e);
+	}
+
+	/**
+	 * Writes the buffer to the file
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -15,6 +15,11 @@ import java.awt.Color;
  */
 
 public class SShape extends AbstractPiece {
+
+	// (row, col) of the squares from the pivot square, square 1
+	public static final ShapeTemplate TEMPLATE = new ShapeTemplate(5,
+			Color.green, new int[][] { { 0, 1 }, { 0, 0 },
+					{ 1, 0 }, { 1, -1 } }, true, 1);
 	
 	/**
 	 * Creates an S-Shape piece. See class description for actual location of r
@@ -31,12 +36,6 @@ public class SShape extends AbstractPiece {
 	
 	public SShape(int r, int c, Grid g) {
 		
-		super(r, c, g);
-
-		// Create the squares
-		square[0] = new Square(g, r, c + 1, Color.green, true);
-		square[1] = new Square(g, r, c, Color.green, true);
-		square[2] = new Square(g, r + 1, c, Color.green, true);
-		square[3] = new Square(g, r + 1, c - 1, Color.green, true);
+		super(r, c, g, TEMPLATE);
 	}
 }
@@ -0,0 +1,92 @@
+/**
+ * The most recent samples of a measure, e.g. the time of each paint, kept in
+ * a ring of fixed size: a new sample replaces the oldest one. Adding a sample
+ * and reading the statistics never allocate.
+ * 
+ * A ring is written by one thread. Another thread can read the statistics to
+ * show them: a sample added during the reading may or may not be counted.
+ * 
+ * @author dtabys
+ */
+public class SampleRing {
+
+	private long[] samples;
+
+	private volatile long count; // samples added since the ring was created
+
+	/**
+	 * Creates an empty ring
+	 * 
+	 * @param capacity
+	 *            the number of samples kept
+	 * @throws IllegalArgumentException
+	 *             if capacity <= 0
+	 */
+	public SampleRing(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Invalid capacity = "
+					+ capacity);
+		samples = new long[capacity];
+	}
+
+	/**
+	 * Adds a sample, replacing the oldest one if the ring is full
+	 * 
+	 * @param sample
+	 *            the sample
+	 */
+	public void add(long sample) {
+		long n = count;
+		samples[(int) (n % samples.length)] = sample;
+		count = n + 1;
+	}
+
+	/**
+	 * Returns the number of samples kept, at most the capacity
+	 */
+	public int size() {
+		return (int) Math.min(count, samples.length);
+	}
+
+	/**
+	 * Returns the number of samples added since the ring was created
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the last sample added, 0 if there is none
+	 */
+	public long getLast() {
+		long n = count;
+		return n == 0 ? 0 : samples[(int) ((n - 1) % samples.length)];
+	}
+
+	/**
+	 * Returns the mean of the samples kept, 0 if there is none
+	 */
+	public long getMean() {
+		int n = size();
+		if (n == 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += samples[i];
+		}
+		return sum / n;
+	}
+
+	/**
+	 * Returns the largest sample kept, 0 if there is none
+	 */
+	public long getMax() {
+		int n = size();
+		long max = 0;
+		for (int i = 0; i < n; i++) {
+			max = Math.max(max, samples[i]);
+		}
+		return max;
+	}
+}
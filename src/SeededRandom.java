@@ -0,0 +1,58 @@
+/**
+ * A small random number generator (SplitMix64) whose whole state is one long
+ * that can be read and set, so that a game can be saved and restored with
+ * its random numbers. Unlike SplittableRandom, the state is not hidden.
+ * 
+ * @author dtabys
+ */
+public class SeededRandom {
+
+	private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long state;
+
+	/**
+	 * Creates a generator
+	 * 
+	 * @param seed
+	 *            the seed: the same seed always gives the same numbers
+	 */
+	public SeededRandom(long seed) {
+		state = seed;
+	}
+
+	/**
+	 * Returns the next random long
+	 */
+	public long nextLong() {
+		long z = (state += GAMMA);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns a random int between 0 (included) and bound (excluded)
+	 * 
+	 * @param bound
+	 *            a positive bound
+	 */
+	public int nextInt(int bound) {
+		// the high 32 bits scaled to the bound
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * Returns the state of the generator
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * Sets the state of the generator, as returned by getState
+	 */
+	public void setState(long state) {
+		this.state = state;
+	}
+}
@@ -0,0 +1,346 @@
+import java.awt.Color;
+
+/**
+ * The immutable definition of one kind of piece: its color and the location
+ * of its squares in each of its ROTATIONS rotation states, all computed once.
+ * 
+ * Locations are offsets from the pivot square, the one pieces rotate about.
+ * Rotation state k is the spawn state rotated k times clockwise. Each state
+ * is also stored as bitmasks, one per row of the state, to test it against
+ * the rows of a Grid with Grid.fits.
+ * 
+ * A template also has a wall kick table, as in the Super Rotation System: for
+ * each rotation, the (row, col) shifts to try, in order, when the piece does
+ * not fit where it rotates, e.g. against a wall. The tables are computed from
+ * the rotation states: sideways shifts first, starting away from the side
+ * where the piece grows, then shifts up (floor kicks).
+ * 
+ * @author dtabys
+ */
+public class ShapeTemplate {
+
+	// number of rotation states
+	public static final int ROTATIONS = 4;
+
+	private int id; // the number of this piece in Game.createPiece
+
+	private Color color;
+
+	private byte colorIndex; // the Palette index of color
+
+	// offsets of each square from the pivot, [rotation][square]
+	private int[][] rowOffsets;
+
+	private int[][] colOffsets;
+
+	// smallest row and column offsets of each rotation
+	private int[] top;
+
+	private int[] left;
+
+	// occupied columns of each row of each rotation, bit 0 is column
+	// left[rotation], [rotation][row - top[rotation]]
+	private int[][] masks;
+
+	private int[][][] kicks; // [from rotation][kick] = { row, col }
+
+	private boolean rotates; // false if every rotation state is the same
+
+	/**
+	 * Creates a template
+	 * 
+	 * @param id
+	 *            the number of this piece in Game.createPiece
+	 * @param color
+	 *            the color of the piece
+	 * @param squares
+	 *            the (row, col) offsets of the squares from the pivot in the
+	 *            spawn state
+	 * @param rotates
+	 *            false if the piece looks the same in every rotation state
+	 * @param maxKick
+	 *            the longest wall kick, in squares (0 for no wall kicks)
+	 */
+	public ShapeTemplate(int id, Color color, int[][] squares,
+			boolean rotates, int maxKick) {
+		this.id = id;
+		this.color = color;
+		colorIndex = (byte) Palette.indexOf(color);
+		this.rotates = rotates;
+		int n = squares.length;
+		rowOffsets = new int[ROTATIONS][n];
+		colOffsets = new int[ROTATIONS][n];
+		top = new int[ROTATIONS];
+		left = new int[ROTATIONS];
+		masks = new int[ROTATIONS][];
+
+		for (int i = 0; i < n; i++) {
+			rowOffsets[0][i] = squares[i][0];
+			colOffsets[0][i] = squares[i][1];
+		}
+		for (int rot = 1; rot < ROTATIONS; rot++) {
+			for (int i = 0; i < n; i++) {
+				if (rotates) {
+					// clockwise: (row, col) becomes (col, -row)
+					rowOffsets[rot][i] = colOffsets[rot - 1][i];
+					colOffsets[rot][i] = -rowOffsets[rot - 1][i];
+				} else {
+					rowOffsets[rot][i] = rowOffsets[0][i];
+					colOffsets[rot][i] = colOffsets[0][i];
+				}
+			}
+		}
+
+		for (int rot = 0; rot < ROTATIONS; rot++) {
+			int bottom = Integer.MIN_VALUE;
+			top[rot] = Integer.MAX_VALUE;
+			left[rot] = Integer.MAX_VALUE;
+			for (int i = 0; i < n; i++) {
+				top[rot] = Math.min(top[rot], rowOffsets[rot][i]);
+				bottom = Math.max(bottom, rowOffsets[rot][i]);
+				left[rot] = Math.min(left[rot], colOffsets[rot][i]);
+			}
+			masks[rot] = new int[bottom - top[rot] + 1];
+			for (int i = 0; i < n; i++) {
+				masks[rot][rowOffsets[rot][i] - top[rot]] |= 1 << (colOffsets[rot][i] - left[rot]);
+			}
+		}
+
+		kicks = new int[ROTATIONS][][];
+		for (int rot = 0; rot < ROTATIONS; rot++) {
+			kicks[rot] = computeKicks(rot, maxKick);
+		}
+	}
+
+	/**
+	 * Returns the wall kicks tried when rotating from the given rotation
+	 * state: no shift, sideways shifts up to maxKick squares, shifts up to
+	 * maxKick squares up, then one square up and one sideways
+	 */
+	private int[][] computeKicks(int rotation, int maxKick) {
+		if (maxKick == 0) {
+			return new int[][] { { 0, 0 } };
+		}
+
+		// if the piece grows to the right, move it back to the left first
+		int to = (rotation + 1) % ROTATIONS;
+		int growsLeft = left[rotation] - left[to];
+		int growsRight = right(to) - right(rotation);
+		int side = growsRight > growsLeft ? -1 : 1;
+
+		int[][] list = new int[3 * maxKick + 3][];
+		int n = 0;
+		list[n++] = new int[] { 0, 0 };
+		for (int d = 1; d <= maxKick; d++) {
+			list[n++] = new int[] { 0, side * d };
+			list[n++] = new int[] { 0, -side * d };
+		}
+		for (int d = 1; d <= maxKick; d++) {
+			list[n++] = new int[] { -d, 0 };
+		}
+		list[n++] = new int[] { -1, side };
+		list[n++] = new int[] { -1, -side };
+		return list;
+	}
+
+	/**
+	 * Returns the largest column offset of a rotation state
+	 */
+	private int right(int rotation) {
+		int right = Integer.MIN_VALUE;
+		for (int i = 0; i < colOffsets[rotation].length; i++) {
+			right = Math.max(right, colOffsets[rotation][i]);
+		}
+		return right;
+	}
+
+	/**
+	 * Returns the template of the given piece
+	 * 
+	 * @param pieceNum
+	 *            number of the piece, between 1 and 7 as in Game.createPiece
+	 * @throws IllegalArgumentException
+	 *             if there is no such piece
+	 */
+	public static ShapeTemplate forPiece(int pieceNum) {
+		switch (pieceNum) {
+		case 1:
+			return ZShape.TEMPLATE;
+		case 2:
+			return SquareShape.TEMPLATE;
+		case 3:
+			return JShape.TEMPLATE;
+		case 4:
+			return TShape.TEMPLATE;
+		case 5:
+			return SShape.TEMPLATE;
+		case 6:
+			return BarShape.TEMPLATE;
+		case 7:
+			return LShape.TEMPLATE;
+		}
+		throw new IllegalArgumentException("Invalid piece = " + pieceNum);
+	}
+
+	/**
+	 * Returns the number of this piece in Game.createPiece
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the color of the piece
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * Returns the Palette index of the color of the piece
+	 */
+	public byte getColorIndex() {
+		return colorIndex;
+	}
+
+	/**
+	 * Returns the number of different rotation states: ROTATIONS, or 1 if the
+	 * piece looks the same in every state
+	 */
+	public int getRotationCount() {
+		return rotates ? ROTATIONS : 1;
+	}
+
+	/**
+	 * Returns the row offset from the pivot of a square
+	 * 
+	 * @param rotation
+	 *            the rotation state
+	 * @param square
+	 *            the square, between 0 and PIECE_COUNT - 1
+	 */
+	public int getRowOffset(int rotation, int square) {
+		return rowOffsets[rotation][square];
+	}
+
+	/**
+	 * Returns the column offset from the pivot of a square
+	 * 
+	 * @param rotation
+	 *            the rotation state
+	 * @param square
+	 *            the square, between 0 and PIECE_COUNT - 1
+	 */
+	public int getColOffset(int rotation, int square) {
+		return colOffsets[rotation][square];
+	}
+
+	/**
+	 * Returns the smallest row offset of a rotation state
+	 */
+	public int getTop(int rotation) {
+		return top[rotation];
+	}
+
+	/**
+	 * Returns the smallest column offset of a rotation state
+	 */
+	public int getLeft(int rotation) {
+		return left[rotation];
+	}
+
+	/**
+	 * Returns the number of rows of a rotation state
+	 */
+	public int getHeight(int rotation) {
+		return masks[rotation].length;
+	}
+
+	/**
+	 * Returns the occupied columns of a row of a rotation state. Bit 0 is the
+	 * column getLeft(rotation) from the pivot.
+	 * 
+	 * @param rotation
+	 *            the rotation state
+	 * @param row
+	 *            the row of the state, from 0 (the row getTop(rotation) from
+	 *            the pivot) to getHeight(rotation) - 1
+	 */
+	public int getMask(int rotation, int row) {
+		return masks[rotation][row];
+	}
+
+	/**
+	 * Returns the number of wall kicks tried when rotating from the given
+	 * rotation state
+	 */
+	public int getKickCount(int rotation) {
+		return kicks[rotation].length;
+	}
+
+	/**
+	 * Returns the change of row of a wall kick
+	 * 
+	 * @param rotation
+	 *            the rotation state before rotating
+	 * @param kick
+	 *            the kick, between 0 and getKickCount(rotation) - 1
+	 */
+	public int getKickRow(int rotation, int kick) {
+		return kicks[rotation][kick][0];
+	}
+
+	/**
+	 * Returns the change of column of a wall kick
+	 * 
+	 * @param rotation
+	 *            the rotation state before rotating
+	 * @param kick
+	 *            the kick, between 0 and getKickCount(rotation) - 1
+	 */
+	public int getKickCol(int rotation, int kick) {
+		return kicks[rotation][kick][1];
+	}
+
+	/**
+	 * Returns the first wall kick that lets the piece rotate from the given
+	 * rotation state with its pivot at (row, col), -1 if there is none
+	 * 
+	 * @param grid
+	 *            the grid
+	 * @param rotation
+	 *            the rotation state before rotating
+	 * @param row
+	 *            the row of the pivot
+	 * @param col
+	 *            the column of the pivot
+	 */
+	public int findKick(Grid grid, int rotation, int row, int col) {
+		int to = (rotation + 1) % ROTATIONS;
+		int[][] tries = kicks[rotation];
+		for (int k = 0; k < tries.length; k++) {
+			if (fits(grid, to, row + tries[k][0], col + tries[k][1])) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if the piece in the given rotation state, with its pivot at
+	 * (row, col), is inside the grid and only covers empty squares
+	 * 
+	 * @param grid
+	 *            the grid
+	 * @param rotation
+	 *            the rotation state
+	 * @param row
+	 *            the row of the pivot
+	 * @param col
+	 *            the column of the pivot
+	 */
+	public boolean fits(Grid grid, int rotation, int row, int col) {
+		return grid.fits(row + top[rotation], col + left[rotation],
+				masks[rotation]);
+	}
+}
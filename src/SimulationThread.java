@@ -0,0 +1,221 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs a game on its own thread, away from the Swing thread.
+ * 
+ * The game is played by a fixed timestep GameLoop: at every tick, the actions
+ * posted from other threads are played in order, then the piece falls
+ * according to the gravity. After each change a snapshot of the game is
+ * published in a TripleBuffer and the display is told to update: it only has
+ * to draw the latest snapshot, so a slow paint never delays the game.
+ * 
+ * @author dtabys
+ */
+public class SimulationThread implements Runnable, GameListener {
+
+	private GameEngine game;
+
+	private GameListener display; // told when a new snapshot is published
+
+	private TripleBuffer<BoardSnapshot> snapshots;
+
+	// actions waiting to be played
+	private ConcurrentLinkedQueue<Direction> actions;
+
+	private GameLoop loop;
+
+	private Gravity gravity;
+
+	private boolean changed; // has the game changed since the last snapshot?
+
+	private MovePolicy player; // plays the game instead of the user, or null
+
+	private int playerPeriod; // ticks between two actions of the player
+
+	private ReplayRecorder recorder; // records the end of every tick, or null
+
+	private PerfHud hud; // measures the moves and the fall, or null
+
+	private InputQueue input; // the keys of the user, or null
+
+	/**
+	 * Creates a simulation thread, call start() to start it
+	 * 
+	 * @param game
+	 *            the game to run
+	 * @param display
+	 *            told when a new snapshot is published, from the simulation
+	 *            thread
+	 * @param tickRate
+	 *            ticks per second of the game loop
+	 * @param gravity
+	 *            how fast the piece falls
+	 */
+	public SimulationThread(GameEngine game, GameListener display,
+			int tickRate, Gravity gravity) {
+		this.game = game;
+		this.display = display;
+		this.gravity = gravity;
+		actions = new ConcurrentLinkedQueue<Direction>();
+		snapshots = new TripleBuffer<BoardSnapshot>(new BoardSnapshot(),
+				new BoardSnapshot(), new BoardSnapshot());
+		loop = new GameLoop(tickRate, this);
+		game.addListener(this);
+
+		// the first snapshot, before the display is running
+		snapshots.getBack().copyFrom(game);
+		snapshots.publish();
+	}
+
+	/**
+	 * Returns the buffer holding the latest snapshot of the game
+	 */
+	public TripleBuffer<BoardSnapshot> getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * Returns the loop running the game, e.g. for its timing statistics
+	 */
+	public GameLoop getLoop() {
+		return loop;
+	}
+
+	/**
+	 * Starts the simulation thread
+	 */
+	public void start() {
+		loop.start("Tetris simulation");
+	}
+
+	/**
+	 * Stops the simulation thread
+	 */
+	public void stop() {
+		loop.stop();
+	}
+
+	/**
+	 * Plays the given action on the simulation thread at the next tick. Can
+	 * be called from any thread.
+	 * 
+	 * @param action
+	 *            the action to play
+	 */
+	public void post(Direction action) {
+		actions.offer(action);
+	}
+
+	/**
+	 * Lets a policy play the game on the simulation thread, one action every
+	 * period ticks. Call before start().
+	 * 
+	 * @param player
+	 *            the policy, or null for none
+	 * @param period
+	 *            ticks between two actions
+	 */
+	public void setPlayer(MovePolicy player, int period) {
+		this.player = player;
+		this.playerPeriod = period;
+	}
+
+	/**
+	 * Records the end of every tick in a replay log. Call before start().
+	 * 
+	 * @param recorder
+	 *            the replay log of the game, or null
+	 */
+	public void setRecorder(ReplayRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Plays the keys of the user queued in the given InputQueue at every
+	 * tick, before the posted actions. Call before start().
+	 * 
+	 * @param input
+	 *            the keys of the user, or null
+	 */
+	public void setInput(InputQueue input) {
+		this.input = input;
+	}
+
+	/**
+	 * Records the time the moves and the fall of each tick take, the
+	 * planning of the player left out. Call before start().
+	 * 
+	 * @param hud
+	 *            the performance overlay, or null
+	 */
+	public void setHud(PerfHud hud) {
+		this.hud = hud;
+	}
+
+	/**
+	 * Called by the game whenever it has changed
+	 */
+	public void update() {
+		changed = true;
+	}
+
+	/**
+	 * Plays one tick of the game loop: the keys of the user, the posted
+	 * actions and those of the player, then the gravity. Stops the loop once the game is over.
+	 * The player plans its action before the tick is measured, so that the
+	 * Tick event and the tick time cover the same work.
+	 */
+	public void run() {
+		Direction planned = null;
+		if (player != null && loop.getTicks() % playerPeriod == 0
+				&& !game.isGameOver()) {
+			planned = player.nextAction(game);
+		}
+
+		FlightEvents.Tick tick = null; // only when recorded
+		if (FlightEvents.TICK.isEnabled()) {
+			tick = new FlightEvents.Tick();
+			tick.begin();
+		}
+		long start = System.nanoTime();
+		if (input != null) {
+			input.tick(game, start);
+		}
+		Direction action;
+		while ((action = actions.poll()) != null && !game.isGameOver()) {
+			game.step(action);
+		}
+		if (planned != null && !game.isGameOver()) {
+			game.step(planned);
+		}
+		Gravity.fall(game, gravity.advance());
+		if (tick != null) {
+			tick.commit();
+		}
+		long time = System.nanoTime() - start;
+		Metrics.TICK_TIME.observe(time);
+		if (hud != null) {
+			hud.recordTick(time);
+		}
+		if (recorder != null) {
+			recorder.frame();
+		}
+
+		if (changed) {
+			publish();
+		}
+		if (game.isGameOver()) {
+			loop.stop();
+		}
+	}
+
+	/**
+	 * Publishes a snapshot of the game and tells the display
+	 */
+	private void publish() {
+		snapshots.getBack().copyFrom(game);
+		snapshots.publish();
+		changed = false;
+		display.update();
+	}
+}
@@ -13,7 +13,7 @@ public class Square {
 
 	private boolean ableToMove; // true if this Square can move
 
-	private Color color; // the color of this Square
+	private byte color; // the Palette index of the color of this Square
 
 	// possible move directions are defined by the Game class
 
@@ -32,12 +32,13 @@ public class Square {
 	 * @param col
 	 *            the column of this Square in the Grid
 	 * @param c
-	 *            the Color of this Square
+	 *            the Color of this Square, in the Palette
 	 * @param mobile
 	 *            true if this Square can move
 	 * 
 	 * @throws IllegalArgumentException
-	 *             if row and col not within the Grid
+	 *             if row and col not within the Grid, or the color is not in
+	 *             the Palette
 	 */
 	public Square(Grid g, int row, int col, Color c, boolean mobile) {
 		if (row < 0 || row > Grid.HEIGHT - 1)
@@ -49,7 +50,7 @@ public class Square {
 		grid = g;
 		this.row = row;
 		this.col = col;
-		color = c;
+		color = (byte) Palette.indexOf(c);
 		ableToMove = mobile;
 	}
 
@@ -274,31 +275,50 @@ public class Square {
 	 * Changes the color of this square
 	 * 
 	 * @param c
-	 *            the new color
+	 *            the new color, in the Palette
+	 * @throws IllegalArgumentException
+	 *             if the color is not in the Palette
 	 */
 	public void setColor(Color c) {
-		color = c;
+		color = (byte) Palette.indexOf(c);
 	}
 
 	/**
 	 * Gets the color of this square
 	 */
 	public Color getColor() {
-		return color;	
+		return Palette.getColor(color);
 	}
 
 	/**
 	 * Draws this square on the given graphics context
 	 */
 	public void draw(Graphics g) {
+		draw(g, row, col, color);
+	}
+
+	/**
+	 * Draws a square of the given color at (row, col) of the grid on the given
+	 * graphics context
+	 * 
+	 * @param g
+	 *            the graphics context
+	 * @param row
+	 *            the row of the square in the Grid
+	 * @param col
+	 *            the column of the square in the Grid
+	 * @param color
+	 *            the Palette index of the color of the square
+	 */
+	public static void draw(Graphics g, int row, int col, byte color) {
 
 		// calculate the upper left (x,y) coordinate of this square
 		int actualX = Grid.LEFT + col * WIDTH;
 		int actualY = Grid.TOP + row * HEIGHT;
-		g.setColor(color);
+		g.setColor(Palette.getColor(color));
 		g.fillRect(actualX, actualY, WIDTH, HEIGHT);
 		// black border (if not empty)
-		if (!color.equals(Grid.EMPTY)) {
+		if (color != Palette.EMPTY) {
 			g.setColor(Color.BLACK);
 			g.drawRect(actualX, actualY, WIDTH, HEIGHT);
 		}
@@ -15,6 +15,11 @@ import java.awt.Color;
  */
 
 public class SquareShape extends AbstractPiece {
+
+	// (row, col) of the squares from the pivot square, square 1
+	public static final ShapeTemplate TEMPLATE = new ShapeTemplate(2,
+			Color.gray, new int[][] { { 0, -1 }, { 0, 0 },
+					{ 1, -1 }, { 1, 0 } }, false, 0);
 	
 	/**
 	 * Creates a Square-Shape piece. See class description for actual location of r
@@ -31,16 +36,6 @@ public class SquareShape extends AbstractPiece {
 	
 	public SquareShape(int r, int c, Grid g) {
 		
-		super(r, c, g);
-
-		// Create the squares
-		square[0] = new Square(g, r, c - 1, Color.gray, true);
-		square[1] = new Square(g, r, c, Color.gray, true);
-		square[2] = new Square(g, r + 1, c - 1, Color.gray, true);
-		square[3] = new Square(g, r + 1, c, Color.gray, true);
-	}
-	
-	@Override
-	public void rotate() {
+		super(r, c, g, TEMPLATE);
 	}
 }
@@ -7,56 +7,310 @@
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
 
-public class Tetris extends JPanel {
+public class Tetris extends JPanel implements GameListener {
 
 	private Game game;
 
+	// runs the game when it is not run on the Swing thread, null otherwise
+	private SimulationThread simulation;
+
+	// pixels covered by the piece the last time it was drawn
+	private Rectangle pieceBounds = new Rectangle();
+
+	// pixels to repaint when only the piece has moved
+	private Rectangle dirty = new Rectangle();
+
+	private int gridModCount; // modification count of the grid last drawn
+
+	private ReplayRecorder recorder; // records the game, or null
+
+	private EventController controller; // handles the keys and the loop
+
+	// the performance overlay, toggled by HUD_KEY
+	private PerfHud hud = new PerfHud();
+
+	private Rectangle hudBounds = new Rectangle();
+
+	public static final int HUD_KEY = KeyEvent.VK_H;
+
 	/**
 	 * Sets up the parts for the Tetris game, display and user control
 	 */
 	public Tetris() {
-		game = new Game(this);
+		this(false, false);
+	}
+
+	/**
+	 * Sets up the parts for the Tetris game, display and user control
+	 * 
+	 * @param threaded
+	 *            true to run the game on its own thread, false to run it on
+	 *            the Swing thread
+	 * @param auto
+	 *            true to let the computer play
+	 */
+	public Tetris(boolean threaded, boolean auto) {
+		this(threaded, auto, new UniformRandomizer(
+				new SplittableRandom().nextLong()), null);
+	}
+
+	/**
+	 * Sets up the parts for the Tetris game, display and user control
+	 * 
+	 * @param threaded
+	 *            true to run the game on its own thread, false to run it on
+	 *            the Swing thread
+	 * @param auto
+	 *            true to let the computer play
+	 * @param randomizer
+	 *            chooses the pieces of the game
+	 * @param recorder
+	 *            records the game in a replay log, or null
+	 */
+	public Tetris(boolean threaded, boolean auto, PieceRandomizer randomizer,
+			ReplayRecorder recorder) {
+		this.recorder = recorder;
+		game = new Game(randomizer);
+		game.setRecorder(recorder);
+		EventController ec;
+		if (threaded) {
+			simulation = new SimulationThread(game, this,
+					EventController.TICK_RATE, Gravity.fromPeriod(
+							EventController.PIECE_MOVE_TIME,
+							EventController.TICK_RATE));
+			ec = new EventController(simulation);
+		} else {
+			game.addListener(this);
+			ec = new EventController(game);
+		}
+		ec.setRecorder(recorder);
+		ec.setHud(hud);
+		if (auto) {
+			ec.setPlayer(new AutoPlayer(true));
+		}
+		show(ec);
+		if (simulation != null) {
+			simulation.start();
+		}
+
+		if (recorder != null) {
+			// the log of a game that did not end is closed when leaving
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					stopRecording();
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Plays a replay log in real time
+	 * 
+	 * @param replay
+	 *            the replay to play
+	 */
+	public Tetris(ReplayPlayer replay) {
+		game = replay.createGame();
+		game.addListener(this);
+		show(new EventController(game, replay));
+	}
+
+	/**
+	 * Shows the game in a window controlled by the given EventController
+	 */
+	private void show(EventController ec) {
+		controller = ec;
 		JFrame f = new JFrame("The Tetris Game");
 		f.add(this);
 		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		f.setSize(400, 550);
 		f.setVisible(true);
-		EventController ec = new EventController(game);
 		f.addKeyListener(ec);
+		f.addKeyListener(new KeyAdapter() {
+			public void keyPressed(KeyEvent e) {
+				if (e.getKeyCode() == HUD_KEY) {
+					hud.toggle();
+					repaint();
+				} else if (EventController.control(e.getKeyCode()) != null) {
+					hud.keyPressed();
+				}
+			}
+		});
+		hud.getBounds(hudBounds);
 		setBackground(Color.YELLOW);
 	}
 
 	/**
-	 * Updates the display
+	 * Returns the queue of the keys of the user, e.g. to change its
+	 * auto-shift
+	 */
+	public InputQueue getInput() {
+		return controller.getInput();
+	}
+
+	/**
+	 * Writes the end of the replay log, with the hash of the grid
+	 */
+	private void stopRecording() {
+		try {
+			recorder.close(game.getGrid().getHash());
+		} catch (IOException e) {
+			System.err.println("Replay not recorded: " + e);
+		}
+	}
+
+	/**
+	 * Updates the display. When only the piece has moved, just the area of
+	 * its old and new positions is repainted.
 	 */
 	public void update() {
-		repaint();
+		// update is called on the thread running the game
+		if (recorder != null && game.isGameOver()) {
+			stopRecording();
+		}
+
+		// the game belongs to the simulation thread, draw its latest snapshot
+		if (simulation != null) {
+			repaint();
+			return;
+		}
+
+		AbstractPiece piece = game.getPiece();
+		Grid grid = game.getGrid();
+		if (piece == null || game.isGameOver()
+				|| grid.getModCount() != gridModCount) {
+			gridModCount = grid.getModCount();
+			pieceBounds.setSize(0, 0);
+			repaint();
+			return;
+		}
+
+		piece.getBounds(dirty);
+		if (!pieceBounds.isEmpty()) {
+			dirty.add(pieceBounds);
+		}
+		piece.getBounds(pieceBounds);
+		repaint(dirty);
+		if (hud.isVisible()) {
+			repaint(hudBounds);
+		}
 	}
 
 	/**
 	 * Paint the current state of the game
 	 */
 	public void paintComponent(Graphics g) {
+		FlightEvents.Paint paint = null; // only when recorded
+		if (FlightEvents.PAINT.isEnabled()) {
+			paint = new FlightEvents.Paint();
+			paint.begin();
+		}
+		long start = hud.paintStarted();
 		super.paintComponent(g);
-		game.draw(g);
-		if (game.isGameOver()) {
+		boolean gameOver;
+		if (simulation != null) {
+			BoardSnapshot snapshot = simulation.getSnapshots().getLatest();
+			snapshot.draw(g);
+			gameOver = snapshot.isGameOver();
+		} else {
+			game.draw(g);
+			gameOver = game.isGameOver();
+		}
+		if (gameOver) {
 			g.setFont(new Font("Palatino", Font.BOLD, 40));
 			g.setColor(Color.BLACK);
 			g.drawString("GAME OVER", 80, 300);
 		}
+		hud.draw(g);
+		hud.paintEnded(start);
+		Metrics.PAINT_TIME.observe(System.nanoTime() - start);
+		if (paint != null) {
+			paint.commit();
+		}
 	}
 
-	public static void main(String[] args) {
+	/**
+	 * Starts the game. With the argument -threaded the game runs on its own
+	 * thread instead of the Swing thread. With the argument -auto the computer
+	 * plays. With -record file the game is recorded in a replay log, and with
+	 * -replay file a replay log is played instead of a game. With -metrics
+	 * port the Metrics are served to Prometheus on that port of the loopback
+	 * address, or of the address given by -metricsAddress. -das ticks and
+	 * -arr ticks change the auto-shift delay and rate of the left and right
+	 * keys. The H key shows or hides the performance overlay.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean threaded = false, auto = false;
+		String record = null, replay = null;
+		int metrics = -1;
+		String metricsAddress = null;
+		int das = InputQueue.DEFAULT_DELAY, arr = InputQueue.DEFAULT_RATE;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-threaded":
+				threaded = true;
+				break;
+			case "-auto":
+				auto = true;
+				break;
+			case "-record":
+				record = args[++i];
+				break;
+			case "-replay":
+				replay = args[++i];
+				break;
+			case "-metrics":
+				metrics = Integer.parseInt(args[++i]);
+				break;
+			case "-metricsAddress":
+				metricsAddress = args[++i];
+				break;
+			case "-das":
+				das = Integer.parseInt(args[++i]);
+				break;
+			case "-arr":
+				arr = Integer.parseInt(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid argument = "
+						+ args[i]);
+			}
+		}
+
+		new InputQueue().setAutoShift(das, arr); // fail now, not in the window
+		if (metrics >= 0) {
+			new MetricsServer(metricsAddress, metrics);
+		}
+		final PieceRandomizer randomizer = new UniformRandomizer(
+				new SplittableRandom().nextLong());
+		final ReplayRecorder recorder = record == null ? null
+				: new ReplayRecorder(Paths.get(record), randomizer,
+						EventController.TICK_RATE);
+		final ReplayPlayer player = replay == null ? null : new ReplayPlayer(
+				Paths.get(replay));
+		final boolean t = threaded, a = auto;
+		final int delay = das, rate = arr;
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
-				new Tetris();
+				if (player != null) {
+					new Tetris(player);
+				} else {
+					new Tetris(t, a, randomizer, recorder).getInput()
+							.setAutoShift(delay, rate);
+				}
 			}
 		});
 	}
@@ -1,7 +1,12 @@
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 
@@ -67,6 +72,15 @@ public class TetrisUnitTest {
 		assertTrue(l1.getLocations()[3].getX() == (double) (Grid.HEIGHT - 1));
 		assertTrue(l1.getLocations()[3].getY() == (double) (Grid.WIDTH - 1));
 
+		// the allocation free version gives the same locations
+		int[] rows = new int[AbstractPiece.PIECE_COUNT];
+		int[] cols = new int[AbstractPiece.PIECE_COUNT];
+		l1.getLocations(rows, cols);
+		for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+			assertTrue(rows[i] == (int) l1.getLocations()[i].getX());
+			assertTrue(cols[i] == (int) l1.getLocations()[i].getY());
+		}
+
 		// l2 starts in the middle of the grid
 		LShape l2 = new LShape(Grid.HEIGHT / 2 - 1, Grid.WIDTH / 2 - 1, g);
 
@@ -147,7 +161,11 @@ public class TetrisUnitTest {
 			}
 		}
 
-		g.checkRows();
+		LineClearResult result = g.checkRows();
+		assertTrue(result.getCount() == 3);
+		assertTrue(result.getRow(0) == 1);
+		assertTrue(result.getRow(1) == 5);
+		assertTrue(result.getRow(2) == 8);
 
 		rows = new int[] { 0, 0, 0, 0, 4, 2, 2, 2, 2, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
 		for (int r = 0; r < Grid.HEIGHT; r++) {
@@ -198,6 +216,788 @@ public class TetrisUnitTest {
 		}
 	}
 
+	@Test
+	public void testGridBitmasks() {
+		Grid g = new Grid();
+		g.set(Grid.HEIGHT - 1, 0, Color.RED);
+		g.set(Grid.HEIGHT - 1, 3, Color.RED);
+		assertTrue(g.getRow(Grid.HEIGHT - 1) == 0b1001);
+		assertTrue(g.getColor(Grid.HEIGHT - 1, 3).equals(Color.RED));
+
+		// setting a square back to EMPTY clears its bit
+		g.set(Grid.HEIGHT - 1, 3, Grid.EMPTY);
+		assertTrue(g.getRow(Grid.HEIGHT - 1) == 0b0001);
+
+		// a horizontal bar fits next to the occupied square but not over it
+		assertTrue(g.fits(Grid.HEIGHT - 1, new int[] { 0b11110 }));
+		assertFalse(g.fits(Grid.HEIGHT - 1, new int[] { 0b1111 }));
+
+		// nor past the right edge or the bottom of the grid
+		assertFalse(g.fits(0, new int[] { 0b1111 << (Grid.WIDTH - 3) }));
+		assertFalse(g.fits(Grid.HEIGHT - 1, new int[] { 0b10, 0b10 }));
+	}
+
+	@Test
+	public void testPaletteIndices() {
+		Grid g = new Grid();
+		assertTrue(g.getColorIndex(0, 0) == Palette.EMPTY);
+		assertTrue(g.getColor(0, 0).equals(Grid.EMPTY));
+
+		// a color and its index set the same square
+		byte cyan = ShapeTemplate.forPiece(6).getColorIndex();
+		g.set(Grid.HEIGHT - 1, 2, cyan);
+		assertTrue(g.isSet(Grid.HEIGHT - 1, 2));
+		assertTrue(g.getColor(Grid.HEIGHT - 1, 2).equals(Color.CYAN));
+		g.set(Grid.HEIGHT - 1, 4, Color.CYAN);
+		assertTrue(g.getColorIndex(Grid.HEIGHT - 1, 4) == cyan);
+		g.set(Grid.HEIGHT - 1, 2, Palette.EMPTY);
+		assertTrue(g.getRow(Grid.HEIGHT - 1) == 0b10000);
+
+		// the colors move with their rows
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			g.set(Grid.HEIGHT - 2, c, Color.RED);
+		}
+		g.set(Grid.HEIGHT - 3, 4, Color.GREEN);
+		g.checkRows();
+		assertTrue(g.getColor(Grid.HEIGHT - 1, 4).equals(Color.CYAN));
+		assertTrue(g.getColor(Grid.HEIGHT - 2, 4).equals(Color.GREEN));
+
+		// a square keeps its color as an index too
+		Square s = new Square(g, 0, 0, Color.MAGENTA, true);
+		assertTrue(s.getColor().equals(Color.MAGENTA));
+		try {
+			g.set(0, 0, Color.ORANGE);
+			fail("orange is not in the palette");
+		} catch (IllegalArgumentException e) {
+			assertFalse(g.isSet(0, 0));
+		}
+	}
+
+	@Test
+	public void testCheckRowsRange() {
+		Grid g = new Grid();
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			g.set(Grid.HEIGHT - 1, c, Color.RED);
+			g.set(Grid.HEIGHT - 3, c, Color.RED);
+		}
+		g.set(Grid.HEIGHT - 4, 0, Color.BLUE);
+
+		// the full row outside of the range is not removed
+		LineClearResult result = g.checkRows(Grid.HEIGHT - 3, Grid.HEIGHT - 2);
+		assertTrue(result.getCount() == 1);
+		assertTrue(result.getRow(0) == Grid.HEIGHT - 3);
+		assertTrue(g.getRow(Grid.HEIGHT - 1) == Grid.FULL_ROW);
+		assertTrue(g.getRow(Grid.HEIGHT - 3) == 1);
+		assertTrue(g.getColor(Grid.HEIGHT - 3, 0).equals(Color.BLUE));
+		assertTrue(g.getRow(Grid.HEIGHT - 4) == 0);
+
+		// nothing to remove
+		assertTrue(g.checkRows(0, Grid.HEIGHT - 2) == LineClearResult.NONE);
+	}
+
+	@Test
+	public void testColumnHeights() {
+		Grid g = new Grid();
+		assertTrue(g.getColumnHeight(2) == 0);
+
+		// an overhang: squares at rows HEIGHT - 4 and HEIGHT - 1 of column 2
+		g.set(Grid.HEIGHT - 4, 2, Color.RED);
+		g.set(Grid.HEIGHT - 1, 2, Color.RED);
+		assertTrue(g.getColumnHeight(2) == 4);
+		assertTrue(g.dropDistance(0, 2) == Grid.HEIGHT - 5);
+		assertTrue(g.dropDistance(Grid.HEIGHT - 3, 2) == 1);
+
+		// removing the top of the column lowers it to the next square
+		g.set(Grid.HEIGHT - 4, 2, Grid.EMPTY);
+		assertTrue(g.getColumnHeight(2) == 1);
+
+		// removing a full row lowers every column
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			g.set(Grid.HEIGHT - 1, c, Color.RED);
+		}
+		g.set(Grid.HEIGHT - 3, 5, Color.RED);
+		g.checkRows();
+		assertTrue(g.getColumnHeight(2) == 0);
+		assertTrue(g.getColumnHeight(5) == 2);
+
+		// a piece drops onto the highest square under it
+		LShape l = new LShape(1, 4, g);
+		assertTrue(l.dropDistance() == Grid.HEIGHT - 5);
+		l.move(Direction.DROP);
+		assertFalse(l.canMove(Direction.DOWN));
+	}
+
+	@Test
+	public void testHeadlessGame() {
+		// a game runs without any display
+		Game game = new Game();
+		final int[] updates = { 0 };
+		game.addListener(new GameListener() {
+			public void update() {
+				updates[0]++;
+			}
+		});
+
+		// drop pieces until the board is full
+		int steps = 0;
+		while (!game.isGameOver()) {
+			game.step(Direction.DROP);
+			game.tick();
+			steps += 2;
+		}
+		assertTrue(updates[0] == steps);
+
+		// the pieces have piled up to where new pieces are created
+		Grid g = game.getGrid();
+		assertTrue(g.getRow(0) != 0 || g.getRow(1) != 0 || g.getRow(2) != 0);
+	}
+
+	@Test
+	public void testGravity() {
+		// 1 cell every 48 frames: exactly 5 cells in 240 frames
+		Gravity g = Gravity.fromPeriod(0.8, 60);
+		int cells = 0;
+		for (int frame = 1; frame <= 240; frame++) {
+			int due = g.advance();
+			assertTrue(due == (frame % 48 == 0 ? 1 : 0));
+			cells += due;
+		}
+		assertTrue(cells == 5);
+
+		// at 20G a new piece lands on its first frame
+		Game game = new Game();
+		Gravity.fall(game, Gravity.twentyG().advance());
+		assertTrue(game.getPiece() == null);
+		assertTrue(game.getGrid().getRow(Grid.HEIGHT - 1) != 0);
+		assertTrue(Gravity.twentyG() != Gravity.twentyG()); // not shared
+	}
+
+	@Test
+	public void testRandomizers() {
+		// the same seed gives the same pieces
+		PieceRandomizer[] a = { new UniformRandomizer(42),
+				new BagRandomizer(42), new HistoryRandomizer(42) };
+		PieceRandomizer[] b = { new UniformRandomizer(42),
+				new BagRandomizer(42), new HistoryRandomizer(42) };
+		for (int k = 0; k < a.length; k++) {
+			for (int i = 0; i < 100; i++) {
+				int piece = a[k].next();
+				assertTrue(piece >= 1 && piece <= PieceRandomizer.PIECE_TYPES);
+				assertTrue(piece == b[k].next());
+			}
+		}
+
+		// every piece comes once in each bag
+		PieceRandomizer bag = new BagRandomizer(7);
+		for (int n = 0; n < 10; n++) {
+			boolean[] seen = new boolean[PieceRandomizer.PIECE_TYPES + 1];
+			for (int i = 0; i < PieceRandomizer.PIECE_TYPES; i++) {
+				int piece = bag.next();
+				assertFalse(seen[piece]);
+				seen[piece] = true;
+			}
+		}
+	}
+
+	@Test
+	public void testBatchRunner() {
+		// the same seeds play the same game
+		BatchRunner.GameResult a = BatchRunner.play(new RandomPolicy(3),
+				new BagRandomizer(3), 1000);
+		BatchRunner.GameResult b = BatchRunner.play(new RandomPolicy(3),
+				new BagRandomizer(3), 1000);
+		assertTrue(a.getMoves() == b.getMoves() && a.getMoves() > 0);
+		assertTrue(a.getPieces() == b.getPieces());
+		assertTrue(a.getLines() == b.getLines());
+
+		// a batch plays every game
+		BatchRunner runner = new BatchRunner(new String[] { "-games", "20",
+				"-threads", "2" });
+		assertTrue(runner.run().length == 20);
+	}
+
+	@Test
+	public void testAutoPlayer() {
+		// the computer clears rows and outlives the random policy
+		BatchRunner.GameResult random = BatchRunner.play(new RandomPolicy(5),
+				new BagRandomizer(5), 200);
+		BatchRunner.GameResult ai = BatchRunner.play(new AutoPlayer(false),
+				new BagRandomizer(5), 200);
+		assertTrue(ai.getLines() > 50);
+		assertTrue(ai.getPieces() > random.getPieces());
+
+		// the parallel search finds the same placements
+		BatchRunner.GameResult parallel = BatchRunner.play(new AutoPlayer(
+				true), new BagRandomizer(5), 200);
+		assertTrue(parallel.getMoves() == ai.getMoves());
+		assertTrue(parallel.getLines() == ai.getLines());
+
+		// holes and height lower the score
+		Grid g = new Grid();
+		double empty = AutoPlayer.score(g, 0);
+		g.set(Grid.HEIGHT - 2, 0, Color.RED);
+		assertTrue(AutoPlayer.score(g, 0) < empty);
+
+		// near the top of a stack, every path is played in the game without
+		// locking the piece before its end, and ends where it was planned
+		java.util.SplittableRandom rand = new java.util.SplittableRandom(7);
+		AutoPlayer.Placements out = new AutoPlayer.Placements();
+		for (int seed = 0; seed < 30; seed++) {
+			Game game = new Game(new BagRandomizer(seed));
+			for (int r = 3; r < Grid.HEIGHT; r++) {
+				for (int c = 0; c < Grid.WIDTH; c++) {
+					if (rand.nextInt(5) < 2) {
+						game.getGrid().set(r, c, Color.RED);
+					}
+				}
+			}
+			Grid start = new Grid();
+			start.copyFrom(game.getGrid());
+			byte[] snapshot = game.snapshot();
+			AbstractPiece piece = game.getPiece();
+			ShapeTemplate t = piece.getTemplate();
+			AutoPlayer.findPlacements(start, t, piece.getRotation(),
+					piece.getRow(), piece.getCol(), out);
+			for (int i = 0; i < out.count; i++) {
+				game.restore(snapshot);
+				int serial = piece.getSerial();
+				int moves = out.down[i] + out.rotations[i]
+						+ Math.abs(out.shift[i]);
+				for (int m = 0; m < moves; m++) {
+					assertTrue(game.getPiece() == piece
+							&& piece.getSerial() == serial);
+					game.step(m < out.down[i] ? Direction.DOWN
+							: m < out.down[i] + out.rotations[i] ? Direction.ROTATE
+							: out.shift[i] < 0 ? Direction.LEFT
+							: Direction.RIGHT);
+				}
+				if (game.getPiece() == piece) {
+					assertTrue(piece.getRotation() == out.rotation[i]
+							&& piece.getRow() == out.row[i]
+							&& piece.getCol() == out.col[i]);
+				} else {
+					// locked by the last move, where it was planned
+					assertTrue(!t.fits(start, out.rotation[i],
+							out.row[i] + 1, out.col[i]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testZobristHash() {
+		Grid g = new Grid();
+		assertTrue(g.getHash() == 0);
+
+		// the hash only depends on the occupied squares
+		g.set(19, 0, Color.RED);
+		long one = g.getHash();
+		g.set(19, 0, Color.BLUE);
+		assertTrue(g.getHash() == one);
+		g.set(19, 1, Color.RED);
+		g.set(19, 1, Grid.EMPTY);
+		assertTrue(g.getHash() == one);
+
+		// after a line clear, the same as a grid built without the row
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			g.set(18, c, Color.RED);
+		}
+		g.set(17, 3, Color.GREEN);
+		g.checkRows();
+		Grid h = new Grid();
+		h.set(19, 0, Color.RED);
+		h.set(18, 3, Color.GREEN);
+		assertTrue(g.getHash() == h.getHash());
+
+		Grid copy = new Grid();
+		copy.copyFrom(g);
+		assertTrue(copy.getHash() == g.getHash());
+	}
+
+	@Test
+	public void testEvaluationCache() {
+		EvaluationCache cache = new EvaluationCache(16);
+		assertTrue(cache.getCapacity() == 16);
+		assertTrue(Double.isNaN(cache.get(1, 1)));
+		cache.put(1, 1, 2.5);
+		assertTrue(cache.get(1, 1) == 2.5);
+		assertTrue(Double.isNaN(cache.get(1, 2)));
+		assertTrue(cache.getHits() == 1 && cache.getMisses() == 2);
+
+		// never more entries than the capacity, the recently used stay
+		for (int i = 2; i < 100; i++) {
+			cache.get(1, 1);
+			cache.put(i, 1, i);
+		}
+		assertTrue(cache.get(1, 1) == 2.5);
+		int kept = 0;
+		for (int i = 2; i < 100; i++) {
+			if (!Double.isNaN(cache.get(i, 1))) {
+				kept++;
+			}
+		}
+		assertTrue(kept > 0 && kept < 16);
+
+		// shared by several threads, a value found is the one put
+		EvaluationCache shared = new EvaluationCache(1 << 12);
+		assertTrue(IntStream.range(0, 100_000).parallel().allMatch(i -> {
+			shared.put(i % 5000, 3, i % 5000);
+			double value = shared.get(i % 5000, 3);
+			return Double.isNaN(value) || value == i % 5000;
+		}));
+		assertTrue(shared.getHits() + shared.getMisses() == 100_000);
+
+		// the cache doesn't change the moves of the player
+		AutoPlayer cached = new AutoPlayer(false);
+		BatchRunner.GameResult a = BatchRunner.play(cached,
+				new BagRandomizer(5), 100);
+		BatchRunner.GameResult b = BatchRunner.play(new AutoPlayer(false,
+				null), new BagRandomizer(5), 100);
+		assertTrue(a.getMoves() == b.getMoves());
+		assertTrue(cached.getCache().getHits() > 0);
+	}
+
+	@Test
+	public void testPerft() {
+		// on an empty grid: 8 + 9 columns for the Z, 9 for the square, 2 *
+		// (8 + 9) for the T
+		assertTrue(new Perft(new Grid(), new int[] { 1 }, true).count(1, 1) == 17);
+		assertTrue(new Perft(new Grid(), new int[] { 2 }, true).count(1, 1) == 9);
+		assertTrue(new Perft(new Grid(), new int[] { 4 }, true).count(1, 1) == 34);
+
+		// the table and the threads change the work, not the count
+		Perft withTable = new Perft(new Grid(), new int[] { 1, 2, 3 }, true);
+		Perft without = new Perft(new Grid(), new int[] { 1, 2, 3 }, false);
+		assertTrue(withTable.count(3, 2) == without.count(3, 1));
+		assertTrue(withTable.getNodes() < without.getNodes());
+
+		// a piece locks as soon as it lands: it cannot slide under an overhang
+		Grid g = new Grid();
+		g.set(17, 0, Color.RED);
+		g.set(17, 1, Color.RED);
+		Perft tuck = new Perft(g, new int[] { 2 }, true);
+		assertTrue(tuck.count(1, 1) == 9);
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		Path file = Files.createTempFile("tetris", ".replay");
+		try {
+			// record a game played by the computer, with a frame every step
+			// and a keyframe every 100 frames
+			PieceRandomizer randomizer = new BagRandomizer(9);
+			ReplayRecorder recorder = new ReplayRecorder(file, randomizer, 60,
+					100);
+			Game game = new Game(randomizer);
+			game.setRecorder(recorder);
+			AutoPlayer player = new AutoPlayer(false);
+			long[] hashes = new long[2001]; // the grid after each frame
+			for (int i = 0; i < 2000 && !game.isGameOver(); i++) {
+				if (game.getPiece() == null) {
+					game.tick();
+				} else {
+					game.step(player.nextAction(game));
+				}
+				recorder.frame();
+				hashes[i + 1] = game.getGrid().getHash();
+			}
+			recorder.close(game.getGrid().getHash());
+			assertTrue(recorder.getEvents() == 4000);
+			assertTrue(recorder.getKeyframes() == 20);
+
+			// 3 bits per event, plus the keyframes
+			assertTrue(Files.size(file) < 4000 * 3 / 8 + 20
+					* (ReplayRecorder.KEYFRAME_HEADER + Game.STATE_SIZE + 30)
+					+ 100);
+
+			// the replay ends on the same grid
+			ReplayPlayer replay = new ReplayPlayer(file);
+			assertTrue(replay.isVerifiable());
+			Game copy = replay.createGame();
+			replay.playAll(copy);
+			assertTrue(copy.getGrid().getHash() == replay.getFinalHash());
+			assertTrue(copy.getLinesCleared() == game.getLinesCleared());
+
+			// one frame at a time
+			replay = new ReplayPlayer(file);
+			copy = replay.createGame();
+			int frames = 0;
+			while (replay.playFrame(copy)) {
+				frames++;
+			}
+			assertTrue(frames == 2000);
+			assertTrue(copy.getGrid().getHash() == game.getGrid().getHash());
+
+			// seek back and forth from the keyframes
+			int[] targets = { 1550, 250, 1999, 3, 1000, 1001 };
+			for (int target : targets) {
+				assertTrue(replay.seek(copy, target));
+				assertTrue(replay.getFrame() == target);
+				assertTrue(copy.getGrid().getHash() == hashes[target]);
+			}
+			replay.playAll(copy);
+			assertTrue(copy.getGrid().getHash() == replay.getFinalHash());
+
+			// more events than a block holds between two frames
+			randomizer = new BagRandomizer(10);
+			recorder = new ReplayRecorder(file, randomizer, 60);
+			game = new Game(randomizer);
+			game.setRecorder(recorder);
+			for (int i = 0; i < 12_000 && !game.isGameOver(); i++) {
+				if (game.getPiece() == null) {
+					game.tick();
+				} else {
+					game.step(player.nextAction(game));
+				}
+			}
+			recorder.close(game.getGrid().getHash());
+			assertTrue(recorder.getEvents() == 12_000);
+			replay = new ReplayPlayer(file);
+			copy = replay.createGame();
+			replay.playAll(copy);
+			assertTrue(copy.getGrid().getHash() == replay.getFinalHash());
+			assertTrue(copy.getLinesCleared() == game.getLinesCleared());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testSnapshot() {
+		Game game = new Game(new HistoryRandomizer(4));
+		AutoPlayer player = new AutoPlayer(false);
+		for (int i = 0; i < 300; i++) {
+			if (game.getPiece() == null) {
+				game.tick();
+			} else {
+				game.step(player.nextAction(game));
+			}
+		}
+		game.getGrid().set(0, 0, Color.MAGENTA);
+		byte[] snapshot = game.snapshot();
+		assertTrue(snapshot.length == Game.STATE_SIZE);
+		long hash = game.getGrid().getHash();
+		int lines = game.getLinesCleared();
+
+		// play on, then undo
+		Direction[] moves = new Direction[100];
+		long[] hashes = new long[100];
+		for (int i = 0; i < 100; i++) {
+			moves[i] = game.getPiece() == null ? Direction.DOWN : player
+					.nextAction(game);
+			game.step(moves[i]);
+			hashes[i] = game.getGrid().getHash();
+		}
+		game.restore(snapshot);
+		assertTrue(game.getGrid().getHash() == hash);
+		assertTrue(game.getLinesCleared() == lines);
+		assertTrue(game.getGrid().getColor(0, 0).equals(Color.MAGENTA));
+
+		// the same moves give the same game, pieces included
+		for (int i = 0; i < 100; i++) {
+			game.step(moves[i]);
+			assertTrue(game.getGrid().getHash() == hashes[i]);
+		}
+
+		// a new game of the same kind restored from the snapshot
+		Game other = new Game(new HistoryRandomizer(0));
+		other.restore(snapshot);
+		assertTrue(other.getGrid().getHash() == hash);
+		assertTrue(java.util.Arrays.equals(other.snapshot(), snapshot));
+	}
+
+	@Test
+	public void testPerfHud() {
+		// a ring keeps the last samples only
+		SampleRing ring = new SampleRing(4);
+		assertTrue(ring.getMean() == 0 && ring.getMax() == 0);
+		for (int i = 1; i <= 6; i++) {
+			ring.add(i * 10);
+		}
+		assertTrue(ring.size() == 4 && ring.getCount() == 6);
+		assertTrue(ring.getLast() == 60);
+		assertTrue(ring.getMean() == 45);
+		assertTrue(ring.getMax() == 60);
+
+		// the overlay draws only when shown
+		PerfHud hud = new PerfHud();
+		java.awt.image.BufferedImage image = new java.awt.image.BufferedImage(
+				400, 550, java.awt.image.BufferedImage.TYPE_INT_RGB);
+		java.awt.Graphics g = image.getGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 400, 550);
+		java.awt.Rectangle bounds = new java.awt.Rectangle();
+		hud.getBounds(bounds);
+		for (int i = 0; i < 3; i++) {
+			hud.keyPressed();
+			hud.recordTick(1000);
+			hud.paintEnded(hud.paintStarted());
+			hud.draw(g);
+		}
+		assertTrue(image.getRGB(bounds.x + 1, bounds.y + 1) == 0xFFFFFFFF);
+		hud.toggle();
+		assertTrue(hud.isVisible());
+		hud.draw(g);
+		assertFalse(image.getRGB(bounds.x + 1, bounds.y + 1) == 0xFFFFFFFF);
+		g.dispose();
+
+		// only the keys of the game count for the latency
+		assertTrue(EventController.control(
+				java.awt.event.KeyEvent.VK_LEFT) == InputQueue.Control.LEFT);
+		assertTrue(EventController.control(java.awt.event.KeyEvent.VK_Q) == null);
+		assertTrue(EventController.control(Tetris.HUD_KEY) == null);
+	}
+
+	@Test
+	public void testFlightRecorderEvents() throws IOException {
+		Path file = Files.createTempFile("tetris", ".jfr");
+		int spawns = 0, locks = 0, rows = 0;
+		// the events are only created while a recording enables them
+		assertFalse(FlightEvents.PIECE_SPAWN.isEnabled());
+		try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+			recording.enable(FlightEvents.PieceSpawn.class);
+			recording.enable(FlightEvents.PieceLock.class);
+			recording.enable(FlightEvents.LineClear.class);
+			recording.start();
+			assertTrue(FlightEvents.PIECE_SPAWN.isEnabled());
+			Game game = new Game(new BagRandomizer(3));
+			AutoPlayer player = new AutoPlayer(false);
+			while (game.getLinesCleared() < 10) {
+				if (game.getPiece() == null) {
+					game.tick();
+				} else {
+					game.step(player.nextAction(game));
+				}
+			}
+			recording.stop();
+			recording.dump(file);
+
+			for (jdk.jfr.consumer.RecordedEvent e : jdk.jfr.consumer.RecordingFile
+					.readAllEvents(file)) {
+				switch (e.getEventType().getName()) {
+				case "tetris.PieceSpawn":
+					spawns++;
+					break;
+				case "tetris.PieceLock":
+					locks++;
+					break;
+				case "tetris.LineClear":
+					rows += e.getInt("rows");
+					assertTrue(e.getInt("linesCleared") <= game
+							.getLinesCleared());
+					break;
+				}
+			}
+			assertTrue(rows == game.getLinesCleared());
+		} finally {
+			Files.delete(file);
+		}
+		// the loop stops after a lock: every piece is locked
+		assertTrue(spawns > 0 && locks == spawns);
+		assertFalse(FlightEvents.PIECE_SPAWN.isEnabled());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		long started = Metrics.GAMES_STARTED.sum();
+		long over = Metrics.GAMES_OVER.sum();
+		long lines = Metrics.LINES_CLEARED.sum();
+		long bars = Metrics.getPiecesSpawned(6);
+		Game game = new Game(new BagRandomizer(5));
+		RandomPolicy policy = new RandomPolicy(5);
+		while (!game.isGameOver()) {
+			game.step(policy.nextAction(game));
+		}
+		assertTrue(Metrics.GAMES_STARTED.sum() >= started + 1);
+		assertTrue(Metrics.GAMES_OVER.sum() >= over + 1);
+		assertTrue(Metrics.LINES_CLEARED.sum() >= lines
+				+ game.getLinesCleared());
+		assertTrue(Metrics.getPiecesSpawned(6) > bars);
+
+		// the buckets of a histogram are cumulative
+		Histogram h = new Histogram();
+		h.observe(50_000);
+		h.observe(3_000_000);
+		h.observe(1_000_000_000);
+		StringBuilder text = new StringBuilder();
+		h.write(text, "t", "Test.");
+		assertTrue(h.getCount() == 3);
+		assertTrue(text.indexOf("t_bucket{le=\"0.0001\"} 1\n") >= 0);
+		assertTrue(text.indexOf("t_bucket{le=\"0.005\"} 2\n") >= 0);
+		assertTrue(text.indexOf("t_bucket{le=\"0.1\"} 2\n") >= 0);
+		assertTrue(text.indexOf("t_bucket{le=\"+Inf\"} 3\n") >= 0);
+		assertTrue(text.indexOf("t_sum 1.00305\n") >= 0);
+		assertTrue(text.indexOf("t_count 3\n") >= 0);
+		assertTrue(text.indexOf("E-") < 0);
+
+		// the server answers with every metric
+		MetricsServer server = new MetricsServer(0);
+		try {
+			java.net.HttpURLConnection c = (java.net.HttpURLConnection) new java.net.URL(
+					"http://localhost:" + server.getPort() + MetricsServer.PATH)
+					.openConnection();
+			assertTrue(c.getResponseCode() == 200);
+			String body = new String(c.getInputStream().readAllBytes(),
+					java.nio.charset.StandardCharsets.UTF_8);
+			assertTrue(body.contains("tetris_games_started_total "));
+			assertTrue(body.contains("tetris_pieces_spawned_total{piece=\"I\"} "));
+			assertTrue(body.contains("tetris_tick_seconds_count "));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testEventBus() throws InterruptedException {
+		// every event of a game, in order
+		EventBus bus = new EventBus(1 << 16);
+		final int[] counts = new int[GameEvent.Type.values().length];
+		final int[] rows = new int[1];
+		EventBus.Subscriber subscriber = bus.subscribe(
+				new GameEventListener() {
+					public void onEvent(GameEvent event) {
+						counts[event.getType().ordinal()]++;
+						rows[0] += event.getRows();
+					}
+				}, "test events");
+		Game game = new Game(new BagRandomizer(2));
+		game.setEventBus(bus);
+		RandomPolicy policy = new RandomPolicy(2);
+		while (!game.isGameOver()) {
+			game.step(policy.nextAction(game));
+		}
+		// the end of the game is published once, asking publishes nothing
+		long published = bus.getPublished();
+		assertTrue(game.isGameOver());
+		assertTrue(bus.getPublished() == published);
+		subscriber.close();
+		assertTrue(subscriber.getMissed() == 0);
+		assertTrue(subscriber.getDelivered() == bus.getPublished());
+		assertTrue(counts[GameEvent.Type.GAME_OVER.ordinal()] == 1);
+		assertTrue(counts[GameEvent.Type.PIECE_MOVED.ordinal()] > 0);
+		// the first piece was spawned before the bus was set
+		assertTrue(counts[GameEvent.Type.PIECE_SPAWNED.ordinal()]
+				== counts[GameEvent.Type.PIECE_LOCKED.ordinal()]);
+		assertTrue(rows[0] == game.getLinesCleared());
+
+		// a slow subscriber is lapped, the producer never waits
+		bus = new EventBus(8);
+		final java.util.concurrent.CountDownLatch go =
+				new java.util.concurrent.CountDownLatch(1);
+		final long[] last = { -1 };
+		final boolean[] ordered = { true };
+		subscriber = bus.subscribe(new GameEventListener() {
+			public void onEvent(GameEvent event) {
+				try {
+					go.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				ordered[0] &= event.getRow() > last[0];
+				last[0] = event.getRow();
+			}
+		}, "slow events");
+		for (int i = 0; i < 1000; i++) {
+			bus.claim(GameEvent.Type.PIECE_MOVED).row = i;
+			bus.publish();
+		}
+		go.countDown();
+		subscriber.close();
+		assertTrue(subscriber.getMissed() > 0);
+		assertTrue(subscriber.getDelivered() + subscriber.getMissed() == 1000);
+		assertTrue(ordered[0] && last[0] == 999);
+	}
+
+	@Test
+	public void testInputQueue() {
+		Game game = new Game(new BagRandomizer(1)); // a Z first
+		game.step(Direction.DOWN); // room to rotate
+		InputQueue input = new InputQueue();
+		input.setAutoShift(3, 2);
+		long now = 1_000_000_000L;
+		int col = game.getPiece().getCol();
+
+		// held right: one move now, then after 3 ticks every 2 ticks
+		input.press(InputQueue.Control.RIGHT, now);
+		input.press(InputQueue.Control.RIGHT, now + 1); // system repeat
+		int[] moved = new int[7];
+		for (int i = 0; i < moved.length; i++) {
+			input.tick(game, now + i * 16_000_000L);
+			moved[i] = game.getPiece().getCol() - col;
+		}
+		assertTrue(java.util.Arrays.equals(moved, new int[] { 1, 1, 1, 2,
+				2, 3, 3 }));
+
+		// a release and press of the system repeat does not stop it
+		now += 7 * 16_000_000L;
+		input.release(InputQueue.Control.RIGHT, now);
+		input.tick(game, now + 1_000); // the release waits for a press
+		input.press(InputQueue.Control.RIGHT, now + 2_000);
+		input.tick(game, now + 16_000_000L);
+		assertTrue(game.getPiece().getCol() - col == 4);
+
+		// a tap moves once, released keys do not repeat
+		now += 32_000_000L;
+		input.release(InputQueue.Control.RIGHT, now);
+		input.press(InputQueue.Control.LEFT, now + 1_000);
+		input.release(InputQueue.Control.LEFT, now + 2_000);
+		for (int i = 1; i <= 6; i++) {
+			input.tick(game, now + i * 16_000_000L);
+		}
+		assertTrue(game.getPiece().getCol() - col == 3);
+
+		// one rotation per press, however long it is held
+		now += 80_000_000L;
+		int rotation = game.getPiece().getRotation();
+		input.press(InputQueue.Control.ROTATE, now);
+		for (int i = 0; i < 20; i++) {
+			input.tick(game, now + i * 16_000_000L);
+		}
+		assertTrue(game.getPiece().getRotation() == (rotation + 1) % 4);
+		input.release(InputQueue.Control.ROTATE, now + 320_000_000L);
+
+		// a rate of 0 slides the piece to the wall after the delay
+		now += 400_000_000L;
+		input.setAutoShift(2, 0);
+		input.press(InputQueue.Control.LEFT, now);
+		for (int i = 0; i < 3; i++) {
+			input.tick(game, now + i * 16_000_000L);
+		}
+		AbstractPiece piece = game.getPiece();
+		assertFalse(piece.canMove(Direction.LEFT));
+		input.release(InputQueue.Control.LEFT, now + 48_000_000L);
+
+		// soft drop: one row now, then one every tick
+		now += 100_000_000L;
+		int row = piece.getRow();
+		input.press(InputQueue.Control.SOFT_DROP, now);
+		for (int i = 0; i < 3; i++) {
+			input.tick(game, now + i * 16_000_000L);
+		}
+		assertTrue(piece.getRow() == row + 3);
+	}
+
+	@Test
+	public void testTripleBuffer() {
+		TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1],
+				new int[1], new int[1]);
+		buffer.getBack()[0] = 1;
+		buffer.publish();
+		buffer.getBack()[0] = 2;
+		buffer.publish();
+
+		// the consumer only sees the latest value
+		int[] latest = buffer.getLatest();
+		assertTrue(latest[0] == 2);
+
+		// the producer never writes into the buffer being read
+		buffer.getBack()[0] = 3;
+		assertTrue(buffer.getBack() != latest);
+		assertTrue(buffer.getLatest() == latest && latest[0] == 2);
+		buffer.publish();
+		assertTrue(buffer.getLatest()[0] == 3);
+	}
+
 	@Test
 	public void testRotateSquare() {
 		Grid g = new Grid();
@@ -244,6 +1044,51 @@ public class TetrisUnitTest {
 		}
 	}
 	
+	@Test
+	public void testShapeTemplates() {
+		Grid g = new Grid();
+		for (int n = 1; n <= 7; n++) {
+			ShapeTemplate t = ShapeTemplate.forPiece(n);
+			assertTrue(t.getId() == n);
+
+			// each rotation state is the previous one rotated about the pivot
+			// like Square.rotate does
+			Square pivot = new Square(g, 10, 5, t.getColor(), true);
+			for (int rot = 1; n != 2 && rot < ShapeTemplate.ROTATIONS; rot++) {
+				for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+					Square s = new Square(g, 10 + t.getRowOffset(rot - 1, i),
+							5 + t.getColOffset(rot - 1, i), t.getColor(), true);
+					s.rotate(pivot);
+					assertTrue(s.getRow() == 10 + t.getRowOffset(rot, i));
+					assertTrue(s.getCol() == 5 + t.getColOffset(rot, i));
+				}
+			}
+
+			// the masks cover the same squares as the offsets
+			for (int rot = 0; rot < ShapeTemplate.ROTATIONS; rot++) {
+				int count = 0;
+				for (int r = 0; r < t.getHeight(rot); r++) {
+					count += Integer.bitCount(t.getMask(rot, r));
+				}
+				assertTrue(count == AbstractPiece.PIECE_COUNT);
+				assertTrue(t.fits(g, rot, 10, 5));
+			}
+		}
+
+		// a game reuses its one piece, reset to the template of each new one
+		Game game = new Game(new BagRandomizer(4));
+		AbstractPiece piece = game.getPiece();
+		for (int i = 0; i < 5; i++) {
+			int serial = piece.getSerial();
+			int next = game.getNextPiece();
+			game.step(Direction.DROP);
+			game.tick();
+			assertTrue(game.getPiece() == piece);
+			assertTrue(piece.getSerial() != serial);
+			assertTrue(piece.getTemplate().getId() == next);
+		}
+	}
+
 	@Test
 	public void testShapeRotate() {
 		Grid g = new Grid();
@@ -262,9 +1107,8 @@ public class TetrisUnitTest {
 			p.move(Direction.RIGHT);
 		}
 		
-		// make sure that it cannot be rotated
-		assertTrue(!p.canRotate());
-		p.rotate();
+		// make sure that it is kicked away from the wall when rotated
+		assertKickedIn(p);
 		
 		// repeat these steps for other shapes
 		
@@ -276,8 +1120,7 @@ public class TetrisUnitTest {
 			p.move(Direction.RIGHT);
 		}
 		
-		assertTrue(!p.canRotate());
-		p.rotate();
+		assertKickedIn(p);
 		
 		// check rotation of T-Shape
 		p = new TShape(Grid.HEIGHT / 2 - 1, Grid.WIDTH / 2 - 1, g);
@@ -288,8 +1131,7 @@ public class TetrisUnitTest {
 			p.move(Direction.RIGHT);
 		}
 		
-		assertTrue(!p.canRotate());
-		p.rotate();
+		assertKickedIn(p);
 		
 		// check rotation of S-Shape
 		p = new SShape(Grid.HEIGHT / 2 - 1, Grid.WIDTH / 2 - 1, g);
@@ -300,8 +1142,7 @@ public class TetrisUnitTest {
 			p.move(Direction.RIGHT);
 		}
 		
-		assertTrue(!p.canRotate());
-		p.rotate();
+		assertKickedIn(p);
 		
 		// check rotation of Bar-Shape
 		p = new BarShape(Grid.HEIGHT / 2 - 1, Grid.WIDTH / 2 - 1, g);
@@ -312,8 +1153,7 @@ public class TetrisUnitTest {
 			p.move(Direction.RIGHT);
 		}
 		
-		assertTrue(!p.canRotate());
-		p.rotate();
+		assertKickedIn(p);
 		
 		// check rotation of L	-Shape
 		p = new LShape(Grid.HEIGHT / 2 - 1, Grid.WIDTH / 2 - 1, g);
@@ -325,8 +1165,41 @@ public class TetrisUnitTest {
 			p.move(Direction.RIGHT);
 		}
 		
-		assertTrue(!p.canRotate());
+		assertKickedIn(p);
+
+		// a vertical bar in a deep well cannot rotate at all
+		g = new Grid();
+		for (int r = 5; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				if (c != 4) {
+					g.set(r, c, Color.GREEN);
+				}
+			}
+		}
+		p = new BarShape(1, 4, g);
 		p.rotate();
-		
+		p.move(Direction.DROP);
+		assertFalse(p.canRotate());
+		int col = p.getCol();
+		p.rotate();
+		assertTrue(p.getRotation() == 1 && p.getCol() == col);
+	}
+
+	/**
+	 * Checks that the piece, against the right wall, rotates by being kicked
+	 * back inside the grid
+	 */
+	private void assertKickedIn(AbstractPiece p) {
+		int rotation = p.getRotation();
+		assertTrue(p.canRotate());
+		p.rotate();
+		assertTrue(p.getRotation() == (rotation + 1) % ShapeTemplate.ROTATIONS);
+		int[] rows = new int[AbstractPiece.PIECE_COUNT];
+		int[] cols = new int[AbstractPiece.PIECE_COUNT];
+		p.getLocations(rows, cols);
+		for (int i = 0; i < AbstractPiece.PIECE_COUNT; i++) {
+			assertTrue(cols[i] >= 0 && cols[i] < Grid.WIDTH);
+			assertTrue(rows[i] >= 0 && rows[i] < Grid.HEIGHT);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands values from one producer thread to one consumer thread without locks.
+ * 
+ * There are three buffers: the producer writes into the back buffer, the
+ * consumer reads the front buffer, and the third one is in the middle. When
+ * the producer publishes, its back buffer becomes the middle one and it gets
+ * the old middle buffer back. When the consumer asks for the latest value and
+ * a newer one has been published, its front buffer is exchanged with the
+ * middle one. Neither thread ever waits for the other, and a buffer is never
+ * used by both threads at the same time.
+ * 
+ * @author dtabys
+ */
+public class TripleBuffer<T> {
+
+	// set in middle when the middle buffer holds a value not read yet
+	private static final int FRESH = 4;
+
+	private static final int INDEX = 3;
+
+	private Object[] buffers;
+
+	private int back; // index of the producer's buffer
+
+	private int front; // index of the consumer's buffer
+
+	private AtomicInteger middle; // index of the middle buffer | FRESH
+
+	/**
+	 * Creates a triple buffer from three distinct buffers
+	 */
+	public TripleBuffer(T first, T second, T third) {
+		buffers = new Object[] { first, second, third };
+		back = 0;
+		middle = new AtomicInteger(1);
+		front = 2;
+	}
+
+	/**
+	 * Returns the buffer the producer should write into
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBack() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Makes the back buffer the latest value. Called by the producer once it
+	 * has written the back buffer, which is then replaced by another one.
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/**
+	 * Returns the latest published value. Called by the consumer; the value
+	 * stays valid until the next call.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getLatest() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & INDEX;
+		}
+		return (T) buffers[front];
+	}
+}
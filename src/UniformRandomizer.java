@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses every piece independently, each with the same probability
+ * 
+ * @author dtabys
+ */
+public class UniformRandomizer implements PieceRandomizer {
+
+	private long seed;
+
+	private SeededRandom rand;
+
+	/**
+	 * Creates a randomizer
+	 * 
+	 * @param seed
+	 *            the seed of the random numbers
+	 */
+	public UniformRandomizer(long seed) {
+		this.seed = seed;
+		rand = new SeededRandom(seed);
+	}
+
+	/**
+	 * Returns the next piece, between 1 and PIECE_TYPES
+	 */
+	public int next() {
+		return rand.nextInt(PIECE_TYPES) + 1;
+	}
+
+	/**
+	 * Returns the seed of this randomizer
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the name of this kind of randomizer
+	 */
+	public String getName() {
+		return "uniform";
+	}
+
+	/**
+	 * Writes the state of this randomizer: STATE_SIZE bytes
+	 * 
+	 * @param out
+	 *            receives the state
+	 */
+	public void save(ByteBuffer out) {
+		out.putLong(rand.getState());
+		out.putLong(0); // unused
+	}
+
+	/**
+	 * Sets the state of this randomizer to a state written by save
+	 * 
+	 * @param in
+	 *            holds the state, STATE_SIZE bytes
+	 */
+	public void restore(ByteBuffer in) {
+		rand.setState(in.getLong());
+		in.getLong();
+	}
+}
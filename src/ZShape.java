@@ -15,6 +15,11 @@ import java.awt.Color;
  */
 
 public class ZShape extends AbstractPiece {
+
+	// (row, col) of the squares from the pivot square, square 1
+	public static final ShapeTemplate TEMPLATE = new ShapeTemplate(1,
+			Color.red, new int[][] { { 0, -1 }, { 0, 0 },
+					{ 1, 0 }, { 1, 1 } }, true, 1);
 	
 	/**
 	 * Creates a Z-Shape piece. See class description for actual location of r
@@ -31,12 +36,6 @@ public class ZShape extends AbstractPiece {
 	
 	public ZShape(int r, int c, Grid g) {
 		
-		super(r, c, g);
-
-		// Create the squares
-		square[0] = new Square(g, r, c - 1, Color.red, true);
-		square[1] = new Square(g, r, c, Color.red, true);
-		square[2] = new Square(g, r + 1, c, Color.red, true);
-		square[3] = new Square(g, r + 1, c + 1, Color.red, true);
+		super(r, c, g, TEMPLATE);
 	}
 }